@@ -357,6 +357,7 @@ suite = {
         "sdk:GRAAL_SDK",
         "mx:JUNIT",
         "GRAALJS",
+        "TRUFFLE_JS_SNAPSHOT_TOOL",
       ],
       "annotationProcessors" : ["truffle:TRUFFLE_DSL_PROCESSOR"],
       "checkstyle" : "com.oracle.truffle.js",
@@ -578,7 +579,7 @@ suite = {
         "JACKSON_DATABIND",
         "NASHORN_INTERNAL_TESTS",
       ],
-      "distDependencies" : ["GRAALJS"],
+      "distDependencies" : ["GRAALJS", "TRUFFLE_JS_SNAPSHOT_TOOL"],
       "license": [
         "UPL",
       ],
@@ -884,8 +884,12 @@ public final class AtomicsBuiltins extends JSBuiltinsContainer.SwitchEnum<Atomic
                 if (t < 0) {
                     return TIMED_OUT;
                 }
-                boolean awoken = SharedMemorySync.suspendAgent(getContext(), wl, id, t);
-                SharedMemorySync.removeWaiter(getContext(), wl, id);
+                boolean awoken;
+                try {
+                    awoken = SharedMemorySync.suspendAgent(getContext(), wl, id, t);
+                } finally {
+                    SharedMemorySync.removeWaiter(getContext(), wl, id);
+                }
                 if (awoken) {
                     return OK;
                 } else {
@@ -130,7 +130,7 @@ public final class SharedMemorySync {
     // ##### Atomic CAS primitives
     @TruffleBoundary
     public static boolean compareAndSwapInt(JSContext cx, DynamicObject target, int intArrayOffset, int initial, int result) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         try {
             int value = doVolatileGet(target, intArrayOffset);
             if (value == initial) {
@@ -139,13 +139,13 @@ public final class SharedMemorySync {
             }
             return false;
         } finally {
-            cx.getJSAgent().atomicSectionLeave(target);
+            cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         }
     }
 
     @TruffleBoundary
     public static boolean compareAndSwapBigInt(JSContext cx, DynamicObject target, int intArrayOffset, BigInt initial, BigInt result) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         try {
             BigInt value = doVolatileGetBigInt(target, intArrayOffset);
             if (value.compareTo(initial) == 0) {
@@ -154,25 +154,25 @@ public final class SharedMemorySync {
             }
             return false;
         } finally {
-            cx.getJSAgent().atomicSectionLeave(target);
+            cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         }
     }
 
     // ##### Atomic Fetch-or-Get primitives
     @TruffleBoundary
     public static long atomicFetchOrGetUnsigned(JSContext cx, DynamicObject target, int intArrayOffset, Object expected, Object replacement) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         long read = JSRuntime.toUInt32(doVolatileGet(target, intArrayOffset));
         if (read == JSRuntime.toUInt32(expected)) {
             doVolatilePut(target, intArrayOffset, (int) JSRuntime.toUInt32(replacement));
         }
-        cx.getJSAgent().atomicSectionLeave(target);
+        cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         return read;
     }
 
     @TruffleBoundary
     public static long atomicFetchOrGetLong(JSContext cx, DynamicObject target, int intArrayOffset, long expected, long replacement) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         try {
             int read = doVolatileGet(target, intArrayOffset);
             if (read == expected) {
@@ -180,13 +180,13 @@ public final class SharedMemorySync {
             }
             return read;
         } finally {
-            cx.getJSAgent().atomicSectionLeave(target);
+            cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         }
     }
 
     @TruffleBoundary
     public static int atomicFetchOrGetInt(JSContext cx, DynamicObject target, int intArrayOffset, int expected, int replacement) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         try {
             int read = doVolatileGet(target, intArrayOffset);
             if (read == expected) {
@@ -194,13 +194,13 @@ public final class SharedMemorySync {
             }
             return read;
         } finally {
-            cx.getJSAgent().atomicSectionLeave(target);
+            cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         }
     }
 
     @TruffleBoundary
     public static int atomicFetchOrGetShort(JSContext cx, DynamicObject target, int intArrayOffset, int expected, int replacement, boolean sign) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         int read = doVolatileGet(target, intArrayOffset);
         read = sign ? read : read & 0xFFFF;
         int expectedChopped = sign ? (short) expected : expected & 0xFFFF;
@@ -208,13 +208,13 @@ public final class SharedMemorySync {
             int signed = sign ? replacement : replacement & 0xFFFF;
             SharedMemorySync.doVolatilePut(target, intArrayOffset, (short) signed);
         }
-        cx.getJSAgent().atomicSectionLeave(target);
+        cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         return read;
     }
 
     @TruffleBoundary
     public static int atomicFetchOrGetByte(JSContext cx, DynamicObject target, int intArrayOffset, int expected, int replacement, boolean sign) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         try {
             int read = doVolatileGet(target, intArrayOffset);
             read = sign ? read : read & 0xFF;
@@ -225,13 +225,13 @@ public final class SharedMemorySync {
             }
             return read;
         } finally {
-            cx.getJSAgent().atomicSectionLeave(target);
+            cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         }
     }
 
     @TruffleBoundary
     public static BigInt atomicFetchOrGetBigInt(JSContext cx, DynamicObject target, int intArrayOffset, BigInt expected, BigInt replacement) {
-        cx.getJSAgent().atomicSectionEnter(target);
+        cx.getJSAgent().atomicSectionEnter(target, intArrayOffset);
         try {
             BigInt read = doVolatileGetBigInt(target, intArrayOffset);
             if (read.compareTo(expected) == 0) {
@@ -239,7 +239,7 @@ public final class SharedMemorySync {
             }
             return read;
         } finally {
-            cx.getJSAgent().atomicSectionLeave(target);
+            cx.getJSAgent().atomicSectionLeave(target, intArrayOffset);
         }
     }
 
@@ -249,7 +249,7 @@ public final class SharedMemorySync {
     public static JSAgentWaiterListEntry getWaiterList(JSContext cx, DynamicObject target, int indexPos) {
         DynamicObject arrayBuffer = JSArrayBufferView.getArrayBuffer(target, JSArrayBufferView.isJSArrayBufferView(target));
         JSAgentWaiterList waiterList = JSSharedArrayBuffer.getWaiterList(arrayBuffer);
-        return waiterList.getListForIndex(indexPos);
+        return waiterList.getListForIndex(JSAgentWaiterList.getByteIndex(target, indexPos));
     }
 
     @TruffleBoundary
@@ -288,15 +288,7 @@ public final class SharedMemorySync {
         assert wl.contains(w);
         assert cx.getJSAgent().getSignifier() == w;
         assert cx.getJSAgent().canBlock();
-        cx.getJSAgent().criticalSectionLeave(wl);
-        boolean interrupt = false;
-        try {
-            Thread.sleep(timeout);
-        } catch (InterruptedException e) {
-            interrupt = true;
-        }
-        cx.getJSAgent().criticalSectionEnter(wl);
-        return interrupt;
+        return cx.getJSAgent().suspend(wl, timeout);
     }
 
     /* ECMA2017 24.4.1.10 - Wake up another agent */
@@ -168,4 +168,11 @@ public class BinaryEncoder {
     public int getPosition() {
         return buffer.position();
     }
+
+    /**
+     * Discards all values written so far, keeping the current buffer capacity.
+     */
+    public void reset() {
+        buffer.clear();
+    }
 }
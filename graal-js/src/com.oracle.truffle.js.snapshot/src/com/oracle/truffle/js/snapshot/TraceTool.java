@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.snapshot;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.oracle.truffle.js.runtime.trace.SyncEvent;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
+import com.oracle.truffle.js.runtime.trace.TraceMetrics;
+import com.oracle.truffle.js.runtime.trace.TraceReader;
+import com.oracle.truffle.js.runtime.trace.TraceValue;
+
+/**
+ * Inspects record and replay traces, see {@link TraceFormat}. Traces are streamed, so the tool runs
+ * in constant memory regardless of the size of the trace.
+ *
+ * For a single trace, the tool reports the number of events of every kind, the range of the
+ * recorded job ids and the number of pending jobs at the checkpoints. For two traces, it also
+ * reports the first event at which they differ.
+ */
+public class TraceTool {
+
+    private static final int EVENT_KINDS = TraceFormat.EVENT_VALUE + 1;
+
+    private final long[] eventCounts = new long[EVENT_KINDS];
+    private final int[] minJobSequences = new int[TraceFormat.JOB_KINDS];
+    private final int[] maxJobSequences = new int[TraceFormat.JOB_KINDS];
+    private final TraceMetrics.Histogram pendingJobs = new TraceMetrics.Histogram();
+    private final long[] valueCounts = new long[TraceFormat.VALUE_ERROR + 1];
+    private long events;
+    private long firstJob;
+
+    public TraceTool() {
+        Arrays.fill(minJobSequences, Integer.MAX_VALUE);
+        Arrays.fill(maxJobSequences, -1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int status = run(System.out, args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the tool with the given command line arguments and returns its exit status, which is 1
+     * if two compared traces differ.
+     */
+    public static int run(PrintStream out, String[] args) throws IOException {
+        boolean diff = false;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--diff")) {
+                diff = true;
+            } else if (!arg.startsWith("--")) {
+                files.add(arg);
+            }
+        }
+        if (!diff && files.size() == 1) {
+            TraceTool tool = new TraceTool();
+            try (TraceReader reader = TraceReader.open(files.get(0))) {
+                while (reader.hasNext()) {
+                    tool.readEvent(reader);
+                }
+                tool.print(out, files.get(0), reader.getAgent());
+            }
+        } else if (diff && files.size() == 2) {
+            return diff(out, files.get(0), files.get(1)) ? 1 : 0;
+        } else {
+            out.println("Usage: FILE | --diff FILE FILE");
+        }
+        return 0;
+    }
+
+    /**
+     * Streams two traces side by side and reports the first event at which they differ, followed
+     * by the statistics of both. Returns whether the traces differ.
+     */
+    private static boolean diff(PrintStream out, String file1, String file2) throws IOException {
+        TraceTool tool1 = new TraceTool();
+        TraceTool tool2 = new TraceTool();
+        try (TraceReader reader1 = TraceReader.open(file1); TraceReader reader2 = TraceReader.open(file2)) {
+            long lastCheckpoint = -1;
+            String difference = null;
+            while (reader1.hasNext() && reader2.hasNext()) {
+                String event1 = tool1.readEvent(reader1);
+                String event2 = tool2.readEvent(reader2);
+                if (!event1.equals(event2)) {
+                    difference = String.format("Traces differ at event %d: %s vs. %s", tool1.events - 1, event1, event2);
+                    break;
+                }
+                if (event1.startsWith(TraceFormat.TEXT_CHECKPOINT)) {
+                    lastCheckpoint = tool1.events - 1;
+                }
+            }
+            if (difference == null && reader1.hasNext() != reader2.hasNext()) {
+                difference = String.format("%s ends after %d events", reader1.hasNext() ? file2 : file1, tool1.events);
+            }
+            if (difference == null) {
+                out.printf("Traces are identical (%d events)%n", tool1.events);
+            } else {
+                out.println(difference);
+                out.printf("Last common checkpoint: %s%n", lastCheckpoint < 0 ? "none" : "event " + lastCheckpoint);
+            }
+            // Statistics of the remaining events.
+            while (reader1.hasNext()) {
+                tool1.readEvent(reader1);
+            }
+            while (reader2.hasNext()) {
+                tool2.readEvent(reader2);
+            }
+            out.println();
+            tool1.print(out, file1, reader1.getAgent());
+            out.println();
+            tool2.print(out, file2, reader2.getAgent());
+            return difference != null;
+        }
+    }
+
+    /**
+     * Reads the next event and returns its description.
+     */
+    private String readEvent(TraceReader reader) {
+        int tag = reader.peekEvent();
+        events++;
+        eventCounts[tag]++;
+        int kind = TraceFormat.getJobKindOfEvent(tag);
+        if (kind >= 0) {
+            int sequence = TraceFormat.getJobSequence(reader.nextJob());
+            minJobSequences[kind] = Math.min(minJobSequences[kind], sequence);
+            maxJobSequences[kind] = Math.max(maxJobSequences[kind], sequence);
+            return TraceFormat.getJobKindName(kind) + " " + sequence;
+        }
+        switch (tag) {
+            case TraceFormat.EVENT_CHECKPOINT:
+                long checkpoint = reader.nextCheckpoint();
+                pendingJobs.record(TraceFormat.getCheckpointDepth(checkpoint));
+                return TraceFormat.TEXT_CHECKPOINT + " " + Integer.toHexString(TraceFormat.getCheckpointHash(checkpoint)) + " " + TraceFormat.getCheckpointDepth(checkpoint);
+            case TraceFormat.EVENT_SEGMENT:
+                firstJob = reader.nextSegment();
+                return TraceFormat.TEXT_SEGMENT + " " + firstJob;
+            case TraceFormat.EVENT_SYNC:
+                SyncEvent sync = reader.nextSync();
+                return TraceFormat.TEXT_SYNC + " " + Long.toHexString(sync.getLock()) + " " + sync.getAcquisition();
+            case TraceFormat.EVENT_VALUE:
+                TraceValue value = reader.nextValue();
+                valueCounts[value.getType()]++;
+                return TraceFormat.TEXT_VALUE + " " + value;
+            default:
+                return TraceFormat.getInputName(tag) + " " + reader.nextInput(tag);
+        }
+    }
+
+    private void print(PrintStream out, String file, int agent) {
+        out.printf("%s (agent %s): %d events%n", file, agent == TraceFormat.UNKNOWN_AGENT ? "unknown" : Integer.toString(agent), events);
+        if (eventCounts[TraceFormat.EVENT_SEGMENT] > 0) {
+            out.printf("  segment starting after %d jobs%n", firstJob);
+        }
+        for (int kind = 0; kind < TraceFormat.JOB_KINDS; kind++) {
+            long count = eventCounts[TraceFormat.getJobEvent(kind)];
+            if (count > 0) {
+                out.printf("  %s jobs: %d, ids %d to %d%n", TraceFormat.getJobKindName(kind), count, minJobSequences[kind], maxJobSequences[kind]);
+            }
+        }
+        for (int tag = TraceFormat.EVENT_SEED; tag <= TraceFormat.EVENT_WALL_CLOCK; tag++) {
+            if (eventCounts[tag] > 0) {
+                out.printf("  %s inputs: %d%n", TraceFormat.getInputName(tag), eventCounts[tag]);
+            }
+        }
+        if (eventCounts[TraceFormat.EVENT_CHECKPOINT] > 0) {
+            out.printf("  checkpoints: %d, pending jobs: %s%n", eventCounts[TraceFormat.EVENT_CHECKPOINT], pendingJobs);
+        }
+        if (eventCounts[TraceFormat.EVENT_SYNC] > 0) {
+            out.printf("  lock acquisitions: %d%n", eventCounts[TraceFormat.EVENT_SYNC]);
+        }
+        for (int type = 0; type < valueCounts.length; type++) {
+            if (valueCounts[type] > 0) {
+                out.printf("  %s values: %d%n", TraceFormat.getValueTypeName(type), valueCounts[type]);
+            }
+        }
+    }
+}
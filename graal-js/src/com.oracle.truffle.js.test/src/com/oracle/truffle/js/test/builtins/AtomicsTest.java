@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.test.builtins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.junit.Test;
+
+import com.oracle.truffle.js.lang.JavaScriptLanguage;
+import com.oracle.truffle.js.runtime.JSAgentWaiterList.JSAgentWaiterListEntry;
+import com.oracle.truffle.js.runtime.JSContextOptions;
+import com.oracle.truffle.js.runtime.util.DebugJSAgent;
+
+/**
+ * Tests of {@code Atomics.wait} and {@code Atomics.notify} across agents.
+ */
+public class AtomicsTest {
+
+    private static Context newContext() {
+        return Context.newBuilder(JavaScriptLanguage.ID).allowExperimentalOptions(true).option(JSContextOptions.TEST262_MODE_NAME, "true").build();
+    }
+
+    @Test
+    public void testTimeout() {
+        try (Context context = newContext()) {
+            String src = "var i32 = new Int32Array(new SharedArrayBuffer(8));" +
+                            "var start = Date.now();" +
+                            "var result = Atomics.wait(i32, 0, 0, 50);" +
+                            "result + ',' + (Date.now() - start >= 50);";
+            assertEquals("timed-out,true", context.eval(JavaScriptLanguage.ID, src).asString());
+            assertEquals("timed-out", context.eval(JavaScriptLanguage.ID, "Atomics.wait(i32, 0, 0, 0)").asString());
+            assertEquals("not-equal", context.eval(JavaScriptLanguage.ID, "Atomics.wait(i32, 0, 1, 10000)").asString());
+        }
+    }
+
+    /**
+     * An interrupt cancels the waiting script, but does not stay pending and make later waits
+     * return immediately.
+     */
+    @Test
+    public void testInterrupt() throws InterruptedException {
+        AtomicReference<Object> result = new AtomicReference<>();
+        CountDownLatch waiting = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try (Context context = newContext()) {
+                context.eval(JavaScriptLanguage.ID, "var i32 = new Int32Array(new SharedArrayBuffer(8));");
+                waiting.countDown();
+                try {
+                    context.eval(JavaScriptLanguage.ID, "Atomics.wait(i32, 0, 0, 60000)");
+                    result.set("not cancelled");
+                    return;
+                } catch (PolyglotException e) {
+                    if (!e.isCancelled() || Thread.currentThread().isInterrupted()) {
+                        result.set(e);
+                        return;
+                    }
+                }
+                String src = "var start = Date.now();" +
+                                "var result = Atomics.wait(i32, 0, 0, 50);" +
+                                "result + ',' + (Date.now() - start >= 50);";
+                result.set(context.eval(JavaScriptLanguage.ID, src).asString());
+            }
+        });
+        thread.start();
+        waiting.await();
+        Thread.sleep(100);
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(thread.isAlive());
+        assertEquals("timed-out,true", String.valueOf(result.get()));
+    }
+
+    /**
+     * Notify wakes the agent waiting on the notified index, but not the one waiting on another
+     * index of the same buffer.
+     */
+    @Test
+    public void testNotify() {
+        try (Context context = newContext()) {
+            String src = "var i32 = new Int32Array(new SharedArrayBuffer(16));" +
+                            "for (var k = 0; k < 2; k++) {" +
+                            "  $262.agent.start(`" +
+                            "    $262.agent.receiveBroadcast(function(sab) {" +
+                            "      var i32 = new Int32Array(sab);" +
+                            "      var index = Atomics.add(i32, 3, 1);" +
+                            "      Atomics.add(i32, 2, 1);" +
+                            "      $262.agent.report(index + ':' + Atomics.wait(i32, index, 0, index === 0 ? 60000 : 200));" +
+                            "      $262.agent.leaving();" +
+                            "    });`);" +
+                            "}" +
+                            "$262.agent.broadcast(i32.buffer);" +
+                            "while (Atomics.load(i32, 2) !== 2) { $262.agent.sleep(1); }" +
+                            "var woken;" +
+                            "while ((woken = Atomics.notify(i32, 0, 1)) === 0) { $262.agent.sleep(1); }" +
+                            "var reports = [];" +
+                            "while (reports.length < 2) {" +
+                            "  var r = $262.agent.getReport();" +
+                            "  if (r === null) { $262.agent.sleep(1); } else { reports.push(r); }" +
+                            "}" +
+                            "woken + ',' + reports.sort().join();";
+            assertEquals("1,0:ok,1:timed-out", context.eval(JavaScriptLanguage.ID, src).asString());
+        }
+    }
+
+    /**
+     * Starts an agent that waits on {@code waitView[waitIndex]}, notifies it through
+     * {@code notifyView[notifyIndex]} and returns the number of woken agents and the result of the
+     * wait. The views are expressions of the shared buffer {@code sab}.
+     */
+    private static String waitAndNotify(String waitView, int waitIndex, String notifyView, int notifyIndex) {
+        try (Context context = newContext()) {
+            String src = "var sab = new SharedArrayBuffer(64);" +
+                            "var state = new Int32Array(sab, 48);" +
+                            "$262.agent.start(`" +
+                            "  $262.agent.receiveBroadcast(function(sab) {" +
+                            "    var view = " + waitView + ";" +
+                            "    Atomics.store(new Int32Array(sab, 48), 0, 1);" +
+                            "    $262.agent.report(Atomics.wait(view, " + waitIndex + ", view[" + waitIndex + "], 500));" +
+                            "    $262.agent.leaving();" +
+                            "  });`);" +
+                            "$262.agent.broadcast(sab);" +
+                            "while (Atomics.load(state, 0) === 0) { $262.agent.sleep(1); }" +
+                            "var view = " + notifyView + ";" +
+                            "var woken = 0, r;" +
+                            "while ((r = $262.agent.getReport()) === null) {" +
+                            "  if (woken === 0) { woken = Atomics.notify(view, " + notifyIndex + "); }" +
+                            "  $262.agent.sleep(1);" +
+                            "}" +
+                            "woken + ',' + r;";
+            return context.eval(JavaScriptLanguage.ID, src).asString();
+        }
+    }
+
+    /**
+     * Waiter lists belong to the byte index of the buffer, not to the index in a view.
+     */
+    @Test
+    public void testNotifyThroughOtherView() {
+        assertEquals("1,ok", waitAndNotify("new Int32Array(sab, 8)", 1, "new Int32Array(sab)", 3));
+        assertEquals("1,ok", waitAndNotify("new Int32Array(sab)", 3, "new Int32Array(sab, 4)", 2));
+        assertEquals("1,ok", waitAndNotify("new Int32Array(sab, 16)", 0, "new BigInt64Array(sab)", 2));
+        assertEquals("1,ok", waitAndNotify("new BigInt64Array(sab, 8)", 1, "new Int32Array(sab)", 4));
+        assertEquals("0,timed-out", waitAndNotify("new Int32Array(sab, 8)", 1, "new Int32Array(sab)", 1));
+        assertEquals("0,timed-out", waitAndNotify("new BigInt64Array(sab)", 1, "new Int32Array(sab)", 3));
+    }
+
+    /**
+     * Agents update slots in the same 8-byte word, through views of different element types, in
+     * different words of the same lock stripe and in different stripes at the same time.
+     */
+    @Test
+    public void testConcurrentAtomics() {
+        try (Context context = newContext()) {
+            String src = "var sab = new SharedArrayBuffer(1024);" +
+                            "var i32 = new Int32Array(sab);" +
+                            "var n = 10000;" +
+                            "for (var k = 0; k < 2; k++) {" +
+                            "  $262.agent.start(`" +
+                            "    $262.agent.receiveBroadcast(function(sab) {" +
+                            "      var i32 = new Int32Array(sab);" +
+                            "      for (var i = 0; i < ${n}; i++) {" +
+                            "        Atomics.add(i32, 0, 1);" +
+                            "        Atomics.add(i32, 1, 1);" +
+                            "        Atomics.add(i32, 16, 1);" +
+                            "        Atomics.add(i32, 128, 1);" +
+                            "        var v;" +
+                            "        do { v = Atomics.load(i32, 2); } while (Atomics.compareExchange(i32, 2, v, v + 1) !== v);" +
+                            "      }" +
+                            "      $262.agent.report('done');" +
+                            "      $262.agent.leaving();" +
+                            "    });`);" +
+                            "}" +
+                            "$262.agent.broadcast(sab);" +
+                            "var i64 = new BigInt64Array(sab);" +
+                            "for (var i = 0; i < n; i++) {" +
+                            "  Atomics.add(i64, 0, (1n << 32n) + 1n);" +
+                            "  Atomics.add(i64, 64, 1n << 32n);" +
+                            "}" +
+                            "var reports = 0;" +
+                            "while (reports < 2) {" +
+                            "  if ($262.agent.getReport() === null) { $262.agent.sleep(1); } else { reports++; }" +
+                            "}" +
+                            "[i32[0], i32[1], i32[2], i32[16], i32[128], i32[129]].join();";
+            int n = 10000;
+            String expected = (3 * n) + "," + (3 * n) + "," + (2 * n) + "," + (2 * n) + "," + (2 * n) + "," + n;
+            assertEquals(expected, context.eval(JavaScriptLanguage.ID, src).asString());
+        }
+    }
+
+    /**
+     * The notifying agent wakes the waiter as soon as the waiter leaves the critical section, which
+     * is usually before the waiter parks its thread. The wakeup must not get lost then.
+     */
+    @Test
+    public void testWakeBeforePark() throws InterruptedException {
+        DebugJSAgent waiter = new DebugJSAgent(true, null);
+        DebugJSAgent notifier = new DebugJSAgent(true, null);
+        for (int i = 0; i < 100; i++) {
+            JSAgentWaiterListEntry wl = new JSAgentWaiterListEntry(i);
+            waiter.criticalSectionEnter(wl);
+            Thread thread = new Thread(() -> {
+                notifier.criticalSectionEnter(wl);
+                try {
+                    waiter.wake();
+                } finally {
+                    notifier.criticalSectionLeave(wl);
+                }
+            });
+            thread.start();
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+            boolean woken = waiter.suspend(wl, TimeUnit.MINUTES.toMillis(1));
+            waiter.criticalSectionLeave(wl);
+            thread.join();
+            assertTrue("wakeup was lost", woken);
+        }
+    }
+}
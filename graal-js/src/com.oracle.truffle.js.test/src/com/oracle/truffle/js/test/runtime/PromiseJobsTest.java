@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.test.runtime;
+
+import static com.oracle.truffle.js.lang.JavaScriptLanguage.ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.junit.Test;
+
+import com.oracle.truffle.js.runtime.JSContextOptions;
+import com.oracle.truffle.js.runtime.PromiseHook;
+import com.oracle.truffle.js.test.TestHelper;
+
+public class PromiseJobsTest {
+
+    private static Context newContext() {
+        return Context.newBuilder(ID).allowExperimentalOptions(true).option(JSContextOptions.TEST262_MODE_NAME, "true").build();
+    }
+
+    /**
+     * Jobs of different realms are run in batches of the same realm, but still in the order they
+     * were enqueued.
+     */
+    @Test
+    public void testRealmOrder() {
+        try (Context context = newContext()) {
+            context.eval(ID, "" +
+                            "var order = [];" +
+                            "var other = $262.createRealm().global;" +
+                            "other.order = order;" +
+                            "Promise.resolve().then(() => order.push('a1'));" +
+                            "other.eval(\"Promise.resolve().then(() => order.push('b1'))\");" +
+                            "Promise.resolve().then(() => order.push('a2'));" +
+                            "other.eval(\"Promise.resolve().then(() => order.push('b2')).then(() => order.push('b3'))\");" +
+                            "other.eval(\"Promise.resolve({then(f) { order.push('bt'); f(); }})\");" +
+                            "Promise.resolve().then(() => order.push('a3')).then(() => order.push('a4'));");
+            assertEquals("a1,b1,a2,b2,bt,a3,b3,a4", context.eval(ID, "order.join()").asString());
+        }
+    }
+
+    /**
+     * Consecutive jobs of the same realm keep their order.
+     */
+    @Test
+    public void testSameRealmOrder() {
+        try (Context context = newContext()) {
+            context.eval(ID, "" +
+                            "var order = [];" +
+                            "for (let i = 0; i < 3; i++) {" +
+                            "  Promise.resolve(i).then(v => order.push('p' + v)).then(() => order.push('q' + i));" +
+                            "}");
+            assertEquals("p0,p1,p2,q0,q1,q2", context.eval(ID, "order.join()").asString());
+        }
+    }
+
+    /**
+     * A handler that throws rejects the derived promise.
+     */
+    @Test
+    public void testHandlerThrows() {
+        try (Context context = newContext()) {
+            context.eval(ID, "" +
+                            "var order = [];" +
+                            "Promise.resolve(1).then(v => { throw new Error('e' + v); }).then(() => order.push('fulfilled'), e => order.push(e.message));" +
+                            "Promise.reject(2).then(undefined, r => order.push('r' + r));");
+            assertEquals("r2,e1", context.eval(ID, "order.join()").asString());
+        }
+    }
+
+    /**
+     * A reaction without a handler passes the value or reason on to the derived promise.
+     */
+    @Test
+    public void testUndefinedHandler() {
+        try (Context context = newContext()) {
+            context.eval(ID, "" +
+                            "var order = [];" +
+                            "Promise.resolve(3).then().then(v => order.push('v' + v));" +
+                            "Promise.reject(4).then(v => order.push('fulfilled')).catch(r => order.push('c' + r));");
+            assertEquals("v3,c4", context.eval(ID, "order.join()").asString());
+        }
+    }
+
+    /**
+     * Resumptions of async functions and reaction jobs interleave in the order of the
+     * specification.
+     */
+    @Test
+    public void testAsyncOrder() {
+        try (Context context = Context.newBuilder(ID).allowExperimentalOptions(true).option(JSContextOptions.AWAIT_OPTIMIZATION_NAME, "true").build()) {
+            context.eval(ID, "" +
+                            "var order = [];" +
+                            "async function f() { order.push('f1'); await null; order.push('f2'); await null; order.push('f3'); }" +
+                            "f();" +
+                            "Promise.resolve().then(() => order.push('t1')).then(() => order.push('t2')).then(() => order.push('t3'));" +
+                            "order.push('sync');");
+            assertEquals("f1,sync,f2,t1,f3,t2,t3", context.eval(ID, "order.join()").asString());
+        }
+    }
+
+    /**
+     * The promise hook is notified before and after each reaction job that has a derived promise,
+     * including jobs whose handler throws.
+     */
+    @Test
+    public void testPromiseHook() {
+        try (TestHelper testHelper = new TestHelper()) {
+            List<String> events = new ArrayList<>();
+            testHelper.getJSContext().setPromiseHook((changeType, promise, parentPromise) -> {
+                if (changeType == PromiseHook.TYPE_BEFORE) {
+                    events.add("before");
+                } else if (changeType == PromiseHook.TYPE_AFTER) {
+                    events.add("after");
+                }
+            });
+            testHelper.getPolyglotContext().getBindings(ID).putMember("log", (ProxyExecutable) (arguments) -> events.add(arguments[0].asString()));
+            testHelper.runVoid("Promise.resolve().then(() => log('a')).then(() => { log('b'); throw 'c'; }).catch(r => log(r));");
+            assertEquals("[before, a, after, before, b, after, before, c, after]", events.toString());
+        }
+    }
+
+    @Test
+    public void testStatsDisabled() {
+        try (Context context = newContext()) {
+            assertTrue(context.eval(ID, "Graal.promiseJobStats()").isNull());
+        }
+    }
+
+    /**
+     * One drain that starts with one job and runs the two jobs of a chain.
+     */
+    @Test
+    public void testStats() {
+        try (Context context = Context.newBuilder(ID).allowExperimentalOptions(true).option(JSContextOptions.PROMISE_JOB_STATS_NAME, "true").build()) {
+            context.eval(ID, "function first() {} Promise.resolve().then(first).then(() => {});");
+            Value stats = context.eval(ID, "Graal.promiseJobStats()");
+            assertEquals("queueDepth,drainTime,jobsPerDrain,longestJobTime,longestJob", context.eval(ID, "Object.keys(Graal.promiseJobStats()).join()").asString());
+            for (String histogram : new String[]{"queueDepth", "drainTime", "jobsPerDrain"}) {
+                assertEquals("count,sum,p50,p99,max", context.eval(ID, "Object.keys(Graal.promiseJobStats()." + histogram + ").join()").asString());
+                assertEquals(1, stats.getMember(histogram).getMember("count").asLong());
+            }
+            assertEquals(1, stats.getMember("queueDepth").getMember("max").asLong());
+            assertEquals(2, stats.getMember("jobsPerDrain").getMember("sum").asLong());
+            assertTrue(stats.getMember("longestJobTime").isNumber());
+            assertTrue(stats.getMember("longestJob").isString());
+        }
+    }
+
+    /**
+     * The statistics are dumped periodically and once more when the context is closed.
+     */
+    @Test
+    public void testStatsDump() throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(out, true));
+        try {
+            try (Context context = Context.newBuilder(ID).allowExperimentalOptions(true).option(JSContextOptions.PROMISE_JOB_STATS_INTERVAL_NAME, "10").build()) {
+                context.eval(ID, "Promise.resolve().then(() => {});");
+                assertTrue(context.eval(ID, "Graal.promiseJobStats()").hasMembers());
+                for (int i = 0; i < 1000 && !dumped(out); i++) {
+                    Thread.sleep(10);
+                }
+                assertTrue(dumped(out));
+            }
+        } finally {
+            System.setErr(err);
+        }
+        String dump = new String(out.toByteArray());
+        assertTrue(dump, dump.contains("jobs per drain: "));
+        assertTrue(dump, dump.contains("longest job (ns): "));
+    }
+
+    private static boolean dumped(ByteArrayOutputStream out) {
+        synchronized (out) {
+            return out.size() > 0;
+        }
+    }
+}
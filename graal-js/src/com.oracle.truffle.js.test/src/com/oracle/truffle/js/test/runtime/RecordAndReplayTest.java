@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.test.runtime;
+
+import static com.oracle.truffle.js.lang.JavaScriptLanguage.ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.junit.Test;
+
+import com.oracle.truffle.js.runtime.JSContextOptions;
+
+public class RecordAndReplayTest {
+
+    private static final String SCRIPT = "" +
+                    "var results = [];" +
+                    "Promise.resolve().then(() => results.push(host())).then(() => results.push(host()));";
+
+    private static Context.Builder newContextBuilder() {
+        return Context.newBuilder(ID).allowExperimentalOptions(true);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Records a trace of the contexts run by {@code run}, then renames the files of the recording
+     * agent to the given trace file so that any agent replays it.
+     */
+    private static void record(Path dir, String traceFile, Context.Builder builder, Consumer<Context> run) throws IOException {
+        String recordFile = dir.resolve("record").toString();
+        try (Context context = builder.option(JSContextOptions.RECORD_NAME, "true").option(JSContextOptions.TRACE_FILE_NAME, recordFile).build()) {
+            run.accept(context);
+        }
+        List<String> manifest = Files.readAllLines(dir.resolve("record.manifest"), StandardCharsets.UTF_8);
+        String agentFile = manifest.get(0).substring(manifest.get(0).indexOf(' ') + 1);
+        Files.delete(dir.resolve("record.manifest"));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, agentFile + "*")) {
+            for (Path file : files) {
+                String channel = file.getFileName().toString().substring(agentFile.length());
+                Files.move(file, dir.resolve(traceFile + channel));
+            }
+        }
+    }
+
+    /**
+     * Records a trace of {@link #SCRIPT} with host call results.
+     */
+    private static void record(Path dir, String traceFile, int[] liveCalls) throws IOException {
+        record(dir, traceFile, newContextBuilder().option(JSContextOptions.TRACE_INTEROP_NAME, "true"), (context) -> {
+            context.getBindings(ID).putMember("host", (ProxyExecutable) (arguments) -> ++liveCalls[0]);
+            context.eval(ID, SCRIPT);
+            assertEquals("1,2", context.eval(ID, "results.join()").asString());
+        });
+    }
+
+    private static Context.Builder newReplayContextBuilder(Path dir, String traceFile) {
+        return newContextBuilder().option(JSContextOptions.REPLAY_NAME, "true").option(JSContextOptions.TRACE_FILE_NAME, dir.resolve(traceFile).toString());
+    }
+
+    /**
+     * A warm-up replay runs the recorded jobs with the recorded host call results, reports that it
+     * is ready and never calls the live host.
+     */
+    @Test
+    public void testWarmup() throws IOException {
+        Path dir = Files.createTempDirectory("warmup");
+        try {
+            int[] liveCalls = new int[1];
+            record(dir, "trace", liveCalls);
+            assertEquals(2, liveCalls[0]);
+
+            File readyFile = dir.resolve("ready").toFile();
+            liveCalls[0] = 0;
+            try (Context context = newReplayContextBuilder(dir, "trace").option(JSContextOptions.REPLAY_WARMUP_NAME, "true").option(JSContextOptions.REPLAY_READY_FILE_NAME,
+                            readyFile.getPath()).build()) {
+                context.getBindings(ID).putMember("host", (ProxyExecutable) (arguments) -> ++liveCalls[0]);
+                context.eval(ID, SCRIPT);
+                assertEquals("1,2", context.eval(ID, "results.join()").asString());
+                // calls beyond the recording do not reach the host either
+                context.eval(ID, "Promise.resolve().then(() => results.push(host()))");
+                assertEquals("1,2,", context.eval(ID, "results.join()").asString());
+            }
+            assertEquals(0, liveCalls[0]);
+            assertTrue(readyFile.exists());
+            assertEquals(1, Files.readAllLines(readyFile.toPath(), StandardCharsets.UTF_8).size());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Replays the given script and returns its output and error output.
+     */
+    private static String[] replayOutput(Path dir, String traceFile, String script, long fastForward) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try (Context context = newReplayContextBuilder(dir, traceFile).option(JSContextOptions.REPLAY_FAST_FORWARD_NAME, String.valueOf(fastForward)).out(out).err(err).build()) {
+            context.eval(ID, script);
+        }
+        return new String[]{new String(out.toByteArray(), StandardCharsets.UTF_8), new String(err.toByteArray(), StandardCharsets.UTF_8)};
+    }
+
+    /**
+     * A fast-forward discards the output of the first jobs, prints the output of the later ones
+     * and reports the same hash of the discarded output in every replay.
+     */
+    @Test
+    public void testFastForward() throws IOException {
+        String script = "console.log('main');" +
+                        "for (let i = 1; i <= 5; i++) {" +
+                        "  Promise.resolve().then(() => console.log('job ' + i));" +
+                        "}";
+        Path dir = Files.createTempDirectory("fastforward");
+        try {
+            record(dir, "trace", newContextBuilder().out(new ByteArrayOutputStream()), (context) -> context.eval(ID, script));
+
+            String[] all = replayOutput(dir, "trace", script, 0);
+            assertEquals(String.format("main%njob 1%njob 2%njob 3%njob 4%njob 5%n"), all[0]);
+            assertEquals("", all[1]);
+
+            String[] first = replayOutput(dir, "trace", script, 3);
+            assertEquals(String.format("job 4%njob 5%n"), first[0]);
+            String discarded = String.format("main%njob 1%njob 2%njob 3%n");
+            assertTrue(first[1], first[1].startsWith("Agent "));
+            assertTrue(first[1], first[1].contains(" fast-forwarded over 3 jobs, discarded output: " + discarded.length() + " chars with hash "));
+
+            String[] second = replayOutput(dir, "trace", script, 3);
+            assertEquals(first[0], second[0]);
+            // the signifier of the agent differs between the replays, the hashes do not
+            assertEquals(first[1].substring(first[1].indexOf(" fast-forwarded")), second[1].substring(second[1].indexOf(" fast-forwarded")));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Reactions of promises that the host resolves in the given order, interleaved with an async
+     * function. The jobs log the order they run in.
+     */
+    private static final String PROMISE_SCRIPT = "" +
+                    "var order = [];" +
+                    "function log(v) { order.push(v); console.log(v); return v + '!'; }" +
+                    "var resolvers = [];" +
+                    "for (let i = 0; i < 5; i++) {" +
+                    "  new Promise((resolve) => resolvers.push(resolve)).then(log).then(log);" +
+                    "}" +
+                    "(async function() { await null; log('async'); await null; log('async!'); })();" +
+                    "for (var c of host()) { resolvers[c](c); }" +
+                    "Promise.all([Promise.resolve('all'), new Promise((resolve) => resolvers[4] = resolve)]).then((v) => log(v.join('+')));" +
+                    "resolvers[4]('last');";
+
+    /**
+     * Runs {@link #PROMISE_SCRIPT} with the host resolving the promises in the given order and
+     * returns the order of the jobs and the output.
+     */
+    private static String[] runPromiseScript(Context context, ByteArrayOutputStream out, String permutation) {
+        context.getBindings(ID).putMember("host", (ProxyExecutable) (arguments) -> permutation);
+        context.eval(ID, PROMISE_SCRIPT);
+        return new String[]{context.eval(ID, "order.join()").asString(), new String(out.toByteArray(), StandardCharsets.UTF_8)};
+    }
+
+    /**
+     * A replay runs the jobs in their recorded order, holding back the jobs the live run enqueues
+     * earlier, and produces the recorded output.
+     */
+    @Test
+    public void testReplayJobOrder() throws IOException {
+        Path dir = Files.createTempDirectory("order");
+        try {
+            String[][] recorded = new String[1][];
+            ByteArrayOutputStream recordOut = new ByteArrayOutputStream();
+            record(dir, "trace", newContextBuilder().out(recordOut), (context) -> recorded[0] = runPromiseScript(context, recordOut, "01234"));
+
+            ByteArrayOutputStream liveOut = new ByteArrayOutputStream();
+            try (Context context = newContextBuilder().out(liveOut).build()) {
+                String[] live = runPromiseScript(context, liveOut, "43210");
+                assertNotEquals(recorded[0][0], live[0]);
+            }
+
+            ByteArrayOutputStream replayOut = new ByteArrayOutputStream();
+            try (Context context = newReplayContextBuilder(dir, "trace").out(replayOut).build()) {
+                String[] replayed = runPromiseScript(context, replayOut, "43210");
+                assertEquals(recorded[0][0], replayed[0]);
+                assertEquals(recorded[0][1], replayed[1]);
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Jobs enqueued in another order than recorded fail the first checkpoint. The abort policy
+     * stops the replay with an error, the relaxed policy keeps running the jobs in the recorded
+     * order.
+     */
+    @Test
+    public void testDivergence() throws IOException {
+        Path dir = Files.createTempDirectory("divergence");
+        try {
+            String[][] recorded = new String[1][];
+            ByteArrayOutputStream recordOut = new ByteArrayOutputStream();
+            record(dir, "trace", newContextBuilder().out(recordOut).option(JSContextOptions.TRACE_CHECKPOINT_INTERVAL_NAME, "1"),
+                            (context) -> recorded[0] = runPromiseScript(context, recordOut, "01234"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (Context context = newReplayContextBuilder(dir, "trace").out(out).option(JSContextOptions.TRACE_DIVERGENCE_NAME, "abort").build()) {
+                runPromiseScript(context, out, "43210");
+                fail("should have diverged");
+            } catch (PolyglotException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("diverged from its trace"));
+            }
+
+            // enqueuing the jobs in the recorded order passes the checkpoints
+            out.reset();
+            try (Context context = newReplayContextBuilder(dir, "trace").out(out).option(JSContextOptions.TRACE_DIVERGENCE_NAME, "abort").build()) {
+                assertEquals(recorded[0][0], runPromiseScript(context, out, "01234")[0]);
+            }
+
+            out.reset();
+            try (Context context = newReplayContextBuilder(dir, "trace").out(out).option(JSContextOptions.TRACE_DIVERGENCE_NAME, "relaxed").build()) {
+                String[] replayed = runPromiseScript(context, out, "43210");
+                assertEquals(recorded[0][0], replayed[0]);
+                assertEquals(recorded[0][1], replayed[1]);
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * A replay with {@code js.trace-interop} substitutes the recorded results for host calls.
+     */
+    @Test
+    public void testInteropReplay() throws IOException {
+        Path dir = Files.createTempDirectory("interop");
+        try {
+            int[] liveCalls = new int[1];
+            record(dir, "trace", liveCalls);
+            assertEquals(2, liveCalls[0]);
+
+            liveCalls[0] = 100;
+            try (Context context = newReplayContextBuilder(dir, "trace").option(JSContextOptions.TRACE_INTEROP_NAME, "true").build()) {
+                context.getBindings(ID).putMember("host", (ProxyExecutable) (arguments) -> ++liveCalls[0]);
+                context.eval(ID, SCRIPT);
+                assertEquals("1,2", context.eval(ID, "results.join()").asString());
+            }
+            assertEquals(100, liveCalls[0]);
+
+            // without js.trace-interop, the live host is called
+            try (Context context = newReplayContextBuilder(dir, "trace").build()) {
+                context.getBindings(ID).putMember("host", (ProxyExecutable) (arguments) -> ++liveCalls[0]);
+                context.eval(ID, SCRIPT);
+                assertEquals("101,102", context.eval(ID, "results.join()").asString());
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Unknown values of the trace policy options are rejected when the context is built.
+     */
+    @Test
+    public void testInvalidOptions() {
+        for (String option : new String[]{JSContextOptions.TRACE_FORMAT_NAME, JSContextOptions.TRACE_OVERFLOW_NAME, JSContextOptions.TRACE_DIVERGENCE_NAME}) {
+            try (Context context = newContextBuilder().option(option, "unknown").build()) {
+                fail(option);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Supported values are"));
+            }
+        }
+        try (Context context = newContextBuilder().option(JSContextOptions.TRACE_FORMAT_NAME, "TEXT").option(JSContextOptions.TRACE_OVERFLOW_NAME, "drop").option(
+                        JSContextOptions.TRACE_DIVERGENCE_NAME, "abort").build()) {
+            assertEquals(42, context.eval(ID, "6*7").asInt());
+        }
+    }
+
+    /**
+     * Contexts that share an engine record with their own trace options.
+     */
+    @Test
+    public void testSharedEngine() throws IOException {
+        Path dir = Files.createTempDirectory("engine");
+        try (Engine engine = Engine.create()) {
+            for (String name : new String[]{"first", "second"}) {
+                try (Context context = Context.newBuilder(ID).engine(engine).allowExperimentalOptions(true).option(JSContextOptions.RECORD_NAME, "true").option(
+                                JSContextOptions.TRACE_FILE_NAME, dir.resolve(name).toString()).build()) {
+                    context.eval(ID, "Promise.resolve().then(() => {});");
+                }
+                assertTrue(name, Files.exists(dir.resolve(name + ".manifest")));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.test.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.oracle.truffle.js.runtime.trace.DivergenceDetector;
+import com.oracle.truffle.js.runtime.trace.ReplayScheduler;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
+import com.oracle.truffle.js.runtime.trace.TraceFormat.Encoding;
+import com.oracle.truffle.js.runtime.trace.TraceMetrics;
+import com.oracle.truffle.js.runtime.trace.TraceReader;
+import com.oracle.truffle.js.runtime.trace.TraceWriter;
+
+public class ReplaySchedulerTest {
+
+    private static ReplayScheduler<String> createScheduler(File file, int... recordedIds) throws IOException {
+        try (TraceWriter writer = TraceWriter.create(file.getPath(), Encoding.BINARY, 1)) {
+            for (int id : recordedIds) {
+                writer.writeJob(id);
+            }
+        }
+        return new ReplayScheduler<>(TraceReader.open(file.getPath()));
+    }
+
+    /**
+     * Records jobs that are all enqueued before the first one runs, with a checkpoint every four
+     * jobs, and replays them in the given enqueue order.
+     */
+    private static DivergenceDetector replay(File file, int jobs, int... replayedIds) throws IOException {
+        DivergenceDetector checkpoints = new DivergenceDetector(4);
+        try (TraceWriter writer = TraceWriter.create(file.getPath(), Encoding.BINARY, 1)) {
+            for (int id = 1; id <= jobs; id++) {
+                writer.writeJob(id);
+                if (checkpoints.recordJob(id, id)) {
+                    writer.writeCheckpoint(checkpoints.getCheckpoint());
+                }
+            }
+        }
+        DivergenceDetector detector = new DivergenceDetector(0);
+        ReplayScheduler<Integer> scheduler = new ReplayScheduler<>(TraceReader.open(file.getPath()), detector);
+        for (int id : replayedIds) {
+            scheduler.add(id, id);
+        }
+        int polled = 0;
+        while (scheduler.poll() != null) {
+            polled++;
+        }
+        assertEquals(replayedIds.length, polled);
+        return detector;
+    }
+
+    @Test
+    public void testCheckpoints() throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        try {
+            assertNull(replay(file, 10, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10).getDivergence());
+
+            DivergenceDetector detector = replay(file, 10, 1, 2, 3, 4, 5, 6, 7, 9, 8, 10);
+            assertTrue(detector.hasDiverged());
+            assertTrue(detector.getDivergence(), detector.getDivergence().startsWith("between recorded jobs 4 and 8:"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Replays a segment that starts after five jobs, two of which were still pending.
+     */
+    private static DivergenceDetector replaySegment(File file, int pendingBefore) throws IOException {
+        try (TraceWriter writer = TraceWriter.create(file.getPath(), Encoding.BINARY, 1)) {
+            writer.writeSegment(5);
+            writer.writeCheckpoint(TraceFormat.checkpoint(TraceFormat.INITIAL_JOB_HASH, 2));
+            writer.writeJob(7);
+            writer.writeJob(6);
+        }
+        DivergenceDetector detector = new DivergenceDetector(0);
+        ReplayScheduler<String> scheduler = new ReplayScheduler<>(TraceReader.open(file.getPath()), detector);
+        assertEquals(5, scheduler.getFirstJob());
+        assertFalse(scheduler.isTraceExhausted());
+        detector.startSegment(pendingBefore);
+        scheduler.add(6, "a");
+        scheduler.add(7, "b");
+        assertEquals("b", scheduler.poll());
+        assertEquals("a", scheduler.poll());
+        assertTrue(scheduler.isTraceExhausted());
+        return detector;
+    }
+
+    @Test
+    public void testSegment() throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        try {
+            assertFalse(replaySegment(file, 2).hasDiverged());
+            assertTrue(replaySegment(file, 3).hasDiverged());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRecordedOrder() throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        try {
+            ReplayScheduler<String> scheduler = createScheduler(file, 3, 1, 2, 2);
+            TraceMetrics.Histogram reorderDistance = new TraceMetrics().getReorderDistance();
+            scheduler.setReorderDistance(reorderDistance);
+            scheduler.add(1, "a");
+            scheduler.add(2, "b1");
+            assertNull(scheduler.poll());
+            scheduler.add(2, "b2");
+            scheduler.add(3, "c");
+            assertEquals("c", scheduler.poll());
+            assertEquals("a", scheduler.poll());
+            assertEquals("b1", scheduler.poll());
+            assertEquals("b2", scheduler.poll());
+            assertTrue(scheduler.isEmpty());
+            assertTrue(scheduler.isTraceExhausted());
+
+            // Job c overtook the three jobs enqueued before it.
+            assertEquals(4, reorderDistance.getCount());
+            assertEquals(3, reorderDistance.getCount(0));
+            assertEquals(1, reorderDistance.getCount(2));
+            assertEquals(3, reorderDistance.getMax());
+            assertEquals(0, reorderDistance.getPercentile(50));
+            assertEquals(3, reorderDistance.getPercentile(99));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInsertionOrderAfterTrace() throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        try {
+            ReplayScheduler<String> scheduler = createScheduler(file, 2);
+            scheduler.add(1, "a");
+            scheduler.add(2, "b");
+            scheduler.add(3, "c");
+            scheduler.add(1, "d");
+            assertEquals("b", scheduler.poll());
+            assertEquals("a", scheduler.poll());
+            assertEquals("c", scheduler.poll());
+            assertEquals("d", scheduler.poll());
+            assertNull(scheduler.poll());
+            assertEquals(0, scheduler.size());
+        } finally {
+            file.delete();
+        }
+    }
+}
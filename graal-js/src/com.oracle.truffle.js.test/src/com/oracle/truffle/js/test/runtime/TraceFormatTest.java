@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.test.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.oracle.truffle.js.codec.BinaryEncoder;
+import com.oracle.truffle.js.runtime.trace.AsyncTraceWriter;
+import com.oracle.truffle.js.runtime.trace.AsyncTraceWriter.OverflowPolicy;
+import com.oracle.truffle.js.runtime.trace.BinaryTraceReader;
+import com.oracle.truffle.js.runtime.trace.BinaryTraceWriter;
+import com.oracle.truffle.js.runtime.trace.SyncEvent;
+import com.oracle.truffle.js.runtime.trace.SyncOrder;
+import com.oracle.truffle.js.runtime.trace.SyncPoint;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
+import com.oracle.truffle.js.runtime.trace.TraceFormat.Encoding;
+import com.oracle.truffle.js.runtime.trace.TraceManifest;
+import com.oracle.truffle.js.runtime.trace.TraceMetrics;
+import com.oracle.truffle.js.runtime.trace.TraceReader;
+import com.oracle.truffle.js.runtime.trace.TraceRotation;
+import com.oracle.truffle.js.runtime.trace.TraceValue;
+import com.oracle.truffle.js.runtime.trace.TraceWriter;
+
+public class TraceFormatTest {
+
+    private static final int[] JOB_IDS = {1, 2, 3, 7, 5, 1000000, 4, 4, 200000, Integer.MAX_VALUE, 1, TraceFormat.jobId(TraceFormat.JOB_MICROTASK, 1),
+                    TraceFormat.jobId(TraceFormat.JOB_THENABLE, 2), TraceFormat.jobId(TraceFormat.JOB_MICROTASK, 2), TraceFormat.jobId(TraceFormat.JOB_HOST, 1), 8};
+
+    private static void testRoundTrip(Encoding encoding) throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        try {
+            try (TraceWriter writer = TraceWriter.create(file.getPath(), encoding, 3)) {
+                for (int id : JOB_IDS) {
+                    writer.writeJob(id);
+                }
+            }
+            try (TraceReader reader = TraceReader.open(file.getPath())) {
+                assertEquals(3, reader.getAgent());
+                for (int id : JOB_IDS) {
+                    assertTrue(reader.hasNext());
+                    assertEquals(id, reader.nextJob());
+                }
+                assertFalse(reader.hasNext());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void testAsyncRoundTrip(OverflowPolicy policy) throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        int count = 100000;
+        try {
+            long dropped;
+            try (AsyncTraceWriter writer = new AsyncTraceWriter(TraceWriter.create(file.getPath(), Encoding.BINARY, 1), 16, policy)) {
+                for (int i = 0; i < count; i++) {
+                    writer.writeJob(i);
+                }
+                writer.flush();
+                dropped = writer.getDroppedEvents();
+            }
+            try (TraceReader reader = TraceReader.open(file.getPath())) {
+                int read = 0;
+                int last = -1;
+                while (reader.hasNext()) {
+                    int id = reader.nextJob();
+                    assertTrue(id > last);
+                    last = id;
+                    read++;
+                }
+                assertEquals(count, read + dropped);
+                if (policy != OverflowPolicy.DROP) {
+                    assertEquals(0, dropped);
+                    assertEquals(count - 1, last);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void testInputRoundTrip(Encoding encoding) throws IOException {
+        File file = File.createTempFile("trace", ".inputs");
+        try {
+            try (TraceWriter writer = TraceWriter.create(file.getPath(), encoding, 1)) {
+                writer.writeInput(TraceFormat.EVENT_SEED, Long.MIN_VALUE + 7);
+                writer.writeInput(TraceFormat.EVENT_NANO_TIME, 123456789012345L);
+                writer.writeInput(TraceFormat.EVENT_WALL_CLOCK, 1570000000000L);
+                writer.writeInput(TraceFormat.EVENT_NANO_TIME, 123456789112345L);
+                writer.writeInput(TraceFormat.EVENT_NANO_TIME, -5L);
+            }
+            try (TraceReader reader = TraceReader.open(file.getPath())) {
+                assertEquals(Long.MIN_VALUE + 7, reader.nextInput(TraceFormat.EVENT_SEED));
+                assertEquals(123456789012345L, reader.nextInput(TraceFormat.EVENT_NANO_TIME));
+                assertEquals(1570000000000L, reader.nextInput(TraceFormat.EVENT_WALL_CLOCK));
+                assertEquals(123456789112345L, reader.nextInput(TraceFormat.EVENT_NANO_TIME));
+                try {
+                    reader.nextInput(TraceFormat.EVENT_SEED);
+                    fail("input kind mismatch not detected");
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static final TraceValue[] VALUES = {TraceValue.of(TraceFormat.VALUE_UNDEFINED), TraceValue.of(TraceFormat.VALUE_NULL), TraceValue.of(TraceFormat.VALUE_BOOLEAN, 1),
+                    TraceValue.of(TraceFormat.VALUE_INT, -42), TraceValue.of(TraceFormat.VALUE_LONG, 1L << 40), TraceValue.ofDouble(-0.0), TraceValue.ofDouble(Double.NaN),
+                    TraceValue.of(TraceFormat.VALUE_STRING, ""), TraceValue.of(TraceFormat.VALUE_STRING, "a b\\c\n\u00e9\u4e16"), TraceValue.of(TraceFormat.VALUE_BIGINT, "-123456789012345678901234567890"),
+                    TraceValue.of(TraceFormat.VALUE_OBJECT), TraceValue.of(TraceFormat.VALUE_ERROR, "TypeError: not a function")};
+
+    private static void testValueRoundTrip(Encoding encoding, boolean async) throws IOException {
+        File file = File.createTempFile("trace", ".interop");
+        try {
+            TraceWriter writer = TraceWriter.create(file.getPath(), encoding, 1);
+            if (async) {
+                writer = new AsyncTraceWriter(writer, 4, OverflowPolicy.BLOCK);
+            }
+            try {
+                for (TraceValue value : VALUES) {
+                    writer.writeValue(value);
+                }
+            } finally {
+                writer.close();
+            }
+            try (TraceReader reader = TraceReader.open(file.getPath())) {
+                for (TraceValue value : VALUES) {
+                    assertEquals(TraceFormat.EVENT_VALUE, reader.peekEvent());
+                    assertEquals(value, reader.nextValue());
+                }
+                assertFalse(reader.hasNext());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testValues() throws IOException {
+        testValueRoundTrip(Encoding.BINARY, false);
+        testValueRoundTrip(Encoding.TEXT, false);
+        testValueRoundTrip(Encoding.BINARY, true);
+    }
+
+    @Test
+    public void testBinaryInputs() throws IOException {
+        testInputRoundTrip(Encoding.BINARY);
+    }
+
+    @Test
+    public void testTextInputs() throws IOException {
+        testInputRoundTrip(Encoding.TEXT);
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        testRoundTrip(Encoding.BINARY);
+    }
+
+    @Test
+    public void testTextRoundTrip() throws IOException {
+        testRoundTrip(Encoding.TEXT);
+    }
+
+    @Test
+    public void testAsyncBlock() throws IOException {
+        testAsyncRoundTrip(OverflowPolicy.BLOCK);
+    }
+
+    @Test
+    public void testAsyncDrop() throws IOException {
+        testAsyncRoundTrip(OverflowPolicy.DROP);
+    }
+
+    @Test
+    public void testAsyncGrow() throws IOException {
+        testAsyncRoundTrip(OverflowPolicy.GROW);
+    }
+
+    @Test
+    public void testMappedWindows() throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        int count = 100000;
+        try {
+            // Unchunked version 2 layout.
+            BinaryEncoder encoder = new BinaryEncoder();
+            encoder.putInt32(TraceFormat.MAGIC);
+            encoder.putUInt(2);
+            encoder.putUInt(1);
+            for (int i = 0; i < count; i++) {
+                encoder.putUInt(TraceFormat.EVENT_JOB);
+                encoder.putInt(1000);
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.getChannel().write(encoder.getBuffer());
+            }
+            try (TraceReader reader = new BinaryTraceReader(FileChannel.open(file.toPath(), StandardOpenOption.READ), 4096)) {
+                assertEquals(1, reader.getAgent());
+                for (int i = 1; i <= count; i++) {
+                    assertTrue(reader.hasNext());
+                    assertEquals(i * 1000, reader.nextJob());
+                }
+                assertFalse(reader.hasNext());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertSeek(BinaryTraceReader reader, long event) throws IOException {
+        reader.seek(event);
+        assertEquals(event, reader.getPosition());
+        assertTrue(reader.hasNext());
+        assertEquals((int) event * 3, reader.nextJob());
+    }
+
+    @Test
+    public void testChunkSeek() throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        File truncated = File.createTempFile("trace", ".tracing");
+        int count = 10000;
+        try {
+            try (FileOutputStream out = new FileOutputStream(file); BinaryTraceWriter writer = new BinaryTraceWriter(out.getChannel(), 1, 128)) {
+                for (int i = 0; i < count; i++) {
+                    writer.writeJob(i * 3);
+                }
+            }
+            try (BinaryTraceReader reader = new BinaryTraceReader(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+                assertEquals(count, reader.getEventCount());
+                assertSeek(reader, 7000);
+                assertSeek(reader, 7001);
+                assertSeek(reader, 128);
+                assertSeek(reader, 9999);
+                assertFalse(reader.hasNext());
+                assertSeek(reader, 0);
+            }
+
+            // A trace that was not closed has no index and may end in a partial chunk.
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+            try (BinaryTraceReader reader = new BinaryTraceReader(FileChannel.open(truncated.toPath(), StandardOpenOption.READ))) {
+                assertEquals(-1, reader.getEventCount());
+                assertSeek(reader, 300);
+                assertSeek(reader, 1000);
+                int read = 1001;
+                while (reader.hasNext()) {
+                    assertEquals(read * 3, reader.nextJob());
+                    read++;
+                }
+                assertEquals(0, read % 128);
+            }
+        } finally {
+            file.delete();
+            truncated.delete();
+        }
+    }
+
+    @Test
+    public void testJobKinds() {
+        for (int kind = 0; kind < TraceFormat.JOB_KINDS; kind++) {
+            int id = TraceFormat.jobId(kind, 42);
+            assertEquals(kind, TraceFormat.getJobKind(id));
+            assertEquals(42, TraceFormat.getJobSequence(id));
+            assertEquals(kind, TraceFormat.getJobKindOfEvent(TraceFormat.getJobEvent(kind)));
+        }
+        assertEquals(-1, TraceFormat.getJobKindOfEvent(TraceFormat.EVENT_CHECKPOINT));
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        File manifest = new File(file.getPath() + ".manifest");
+        try {
+            assertEquals(file.getPath(), TraceManifest.lookup(file.getPath(), 1));
+            String first = TraceManifest.register(file.getPath(), 1);
+            String second = TraceManifest.register(file.getPath(), 7);
+            assertEquals(new File(first).getAbsolutePath(), TraceManifest.lookup(file.getPath(), 1));
+            assertEquals(new File(second).getAbsolutePath(), TraceManifest.lookup(file.getPath(), 7));
+        } finally {
+            manifest.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRotation() throws IOException {
+        File dir = Files.createTempDirectory("trace").toFile();
+        File[] segments = new File[5];
+        try {
+            // Budget of 400 bytes, rotated every 100 bytes: three closed segments fit.
+            TraceRotation rotation = new TraceRotation(0, 0, 400, 0);
+            assertTrue(rotation.isEnabled());
+            assertFalse(rotation.isDue(99, 0));
+            assertTrue(rotation.isDue(100, 0));
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new File(TraceFormat.getSegmentFile(new File(dir, "agent").getPath(), i));
+                Files.write(segments[i].toPath(), new byte[100]);
+                rotation.segmentClosed(segments[i].getPath());
+            }
+            assertEquals(3, rotation.getRetainedSegments());
+            assertEquals(300, rotation.getRetainedSize());
+            assertFalse(segments[1].exists());
+            assertTrue(segments[2].exists());
+
+            rotation = new TraceRotation(0, 1000, 0, 1);
+            assertFalse(rotation.isDue(Long.MAX_VALUE, 0));
+            rotation.segmentOpened(0);
+            assertTrue(rotation.isDue(0, 1000 * 1_000_000L));
+            rotation.segmentClosed(segments[3].getPath());
+            rotation.segmentClosed(segments[4].getPath());
+            assertFalse(segments[3].exists());
+            assertTrue(segments[4].exists());
+        } finally {
+            for (File segment : segments) {
+                if (segment != null) {
+                    segment.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * The buffered size bounds the growth of the file when the buffered events are written, so
+     * rotation does not wait for a whole chunk to reach the disk.
+     */
+    private static void testBufferedSize(Encoding encoding) throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        try {
+            try (TraceWriter writer = TraceWriter.create(file.getPath(), encoding, 1)) {
+                long written = writer.getSize();
+                for (int i = 0; i < 100; i++) {
+                    writer.writeJob(i);
+                }
+                long buffered = writer.getBufferedSize();
+                assertEquals(written, writer.getSize());
+                assertTrue(buffered > 100);
+                writer.flush();
+                assertEquals(0, writer.getBufferedSize());
+                assertTrue(writer.getSize() > written);
+                assertTrue(writer.getSize() <= written + buffered);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBinaryBufferedSize() throws IOException {
+        testBufferedSize(Encoding.BINARY);
+    }
+
+    @Test
+    public void testTextBufferedSize() throws IOException {
+        testBufferedSize(Encoding.TEXT);
+    }
+
+    @Test
+    public void testHistogram() {
+        TraceMetrics.Histogram histogram = new TraceMetrics.Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals("no values", histogram.toString());
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(5);
+        assertEquals(4, histogram.getCount());
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(2, histogram.getCount(3));
+        assertEquals(11, histogram.getSum());
+        assertEquals(5, histogram.getMax());
+        assertEquals(1, histogram.getPercentile(50));
+        assertEquals(5, histogram.getPercentile(99));
+
+        // The largest bucket has no upper bound below the maximum.
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getCount(Long.SIZE - 1));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testFlushLatency() throws IOException {
+        for (Encoding encoding : Encoding.values()) {
+            for (boolean async : new boolean[]{false, true}) {
+                File file = File.createTempFile("trace", ".tracing");
+                try {
+                    TraceMetrics metrics = new TraceMetrics();
+                    TraceWriter writer = TraceWriter.create(file.getPath(), encoding, 1);
+                    if (async) {
+                        writer = new AsyncTraceWriter(writer, 16, OverflowPolicy.BLOCK);
+                    }
+                    writer.setFlushLatency(metrics.getFlushLatency());
+                    writer.writeJob(1);
+                    writer.flush();
+                    writer.writeJob(2);
+                    writer.close();
+                    assertEquals(encoding + (async ? " async" : ""), 2, metrics.getFlushLatency().getCount());
+                } finally {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSyncOrder() throws Exception {
+        File a = File.createTempFile("trace", ".sync");
+        File b = File.createTempFile("trace", ".sync");
+        try {
+            // Agent a acquires the lock, then agent b, then agent a again.
+            SyncPoint lock = new SyncPoint(42);
+            try (SyncOrder orderA = new SyncOrder(TraceWriter.create(a.getPath(), Encoding.TEXT, 1));
+                            SyncOrder orderB = new SyncOrder(TraceWriter.create(b.getPath(), Encoding.BINARY, 2))) {
+                orderA.acquired(lock);
+                orderB.acquired(lock);
+                orderA.acquired(lock);
+                assertEquals(3, orderA.getClock());
+                assertEquals(2, orderB.getClock());
+            }
+            try (TraceReader reader = TraceReader.open(b.getPath())) {
+                assertEquals(TraceFormat.EVENT_SYNC, reader.peekEvent());
+                SyncEvent event = reader.nextSync();
+                assertEquals(42, event.getLock());
+                assertEquals(1, event.getAcquisition());
+                assertEquals(2, event.getClock());
+                assertEquals(TraceFormat.EVENT_NONE, reader.peekEvent());
+            }
+
+            // Agent b starts first, but has to wait for the first acquisition of agent a.
+            SyncPoint replayed = new SyncPoint(42);
+            StringBuilder order = new StringBuilder();
+            try (SyncOrder orderA = new SyncOrder(TraceReader.open(a.getPath()), SyncOrder.DEFAULT_TURN_TIMEOUT_MILLIS);
+                            SyncOrder orderB = new SyncOrder(TraceReader.open(b.getPath()), SyncOrder.DEFAULT_TURN_TIMEOUT_MILLIS)) {
+                Thread agentB = new Thread(() -> {
+                    assertTrue(orderB.awaitTurn(replayed));
+                    synchronized (replayed) {
+                        order.append('b');
+                        acquired(orderB, replayed);
+                    }
+                });
+                agentB.start();
+                Thread.sleep(10);
+                for (int i = 0; i < 2; i++) {
+                    assertTrue(orderA.awaitTurn(replayed));
+                    synchronized (replayed) {
+                        order.append('a');
+                        acquired(orderA, replayed);
+                    }
+                }
+                agentB.join();
+                assertEquals("aba", order.toString());
+                assertFalse(orderA.awaitTurn(replayed));
+                assertTrue(orderA.getDivergence() != null);
+            }
+
+            try (SyncOrder orderB = new SyncOrder(TraceReader.open(b.getPath()), 0)) {
+                assertFalse(orderB.awaitTurn(new SyncPoint(7)));
+                assertTrue(orderB.getDivergence() != null);
+            }
+        } finally {
+            a.delete();
+            b.delete();
+        }
+    }
+
+    private static void acquired(SyncOrder order, SyncPoint point) {
+        try {
+            order.acquired(point);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+}
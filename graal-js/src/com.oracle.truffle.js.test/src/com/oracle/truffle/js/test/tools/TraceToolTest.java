@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.test.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
+import com.oracle.truffle.js.runtime.trace.TraceFormat.Encoding;
+import com.oracle.truffle.js.runtime.trace.TraceWriter;
+import com.oracle.truffle.js.snapshot.TraceTool;
+
+public class TraceToolTest {
+
+    /**
+     * Writes a trace of 12 events: 5 reaction jobs, a thenable job, a microtask job, a seed input
+     * and checkpoints with 1, 3, 3 and 10 pending jobs.
+     */
+    private static File writeTrace(Encoding encoding, int lastJob) throws IOException {
+        File file = File.createTempFile("trace", ".tracing");
+        try (TraceWriter writer = TraceWriter.create(file.getPath(), encoding, 7)) {
+            writer.writeInput(TraceFormat.EVENT_SEED, 42);
+            writer.writeJob(TraceFormat.jobId(TraceFormat.JOB_REACTION, 1));
+            writer.writeCheckpoint(TraceFormat.checkpoint(0x1234, 1));
+            writer.writeJob(TraceFormat.jobId(TraceFormat.JOB_REACTION, 2));
+            writer.writeJob(TraceFormat.jobId(TraceFormat.JOB_THENABLE, 1));
+            writer.writeCheckpoint(TraceFormat.checkpoint(0x2345, 3));
+            writer.writeJob(TraceFormat.jobId(TraceFormat.JOB_REACTION, 3));
+            writer.writeJob(TraceFormat.jobId(TraceFormat.JOB_MICROTASK, 2));
+            writer.writeCheckpoint(TraceFormat.checkpoint(0x3456, 3));
+            writer.writeJob(TraceFormat.jobId(TraceFormat.JOB_REACTION, 4));
+            writer.writeJob(TraceFormat.jobId(TraceFormat.JOB_REACTION, lastJob));
+            writer.writeCheckpoint(TraceFormat.checkpoint(0x4567, 10));
+        }
+        return file;
+    }
+
+    private static String run(int expectedStatus, String... args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(bytes, true, "UTF-8")) {
+            assertEquals(expectedStatus, TraceTool.run(out, args));
+        }
+        return toString(bytes);
+    }
+
+    private static String toString(ByteArrayOutputStream bytes) throws UnsupportedEncodingException {
+        return bytes.toString("UTF-8").replace(System.lineSeparator(), "\n");
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        for (Encoding encoding : Encoding.values()) {
+            File file = writeTrace(encoding, 5);
+            try {
+                String expected = file.getPath() + " (agent 7): 12 events\n" +
+                                "  reaction jobs: 5, ids 1 to 5\n" +
+                                "  thenable jobs: 1, ids 1 to 1\n" +
+                                "  microtask jobs: 1, ids 2 to 2\n" +
+                                "  seed inputs: 1\n" +
+                                "  checkpoints: 4, pending jobs: count 4, mean 4, p50 <= 3, p99 <= 10, max 10\n";
+                assertEquals(encoding.name(), expected, run(0, file.getPath()));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testDiff() throws IOException {
+        File binary = writeTrace(Encoding.BINARY, 5);
+        File text = writeTrace(Encoding.TEXT, 5);
+        File other = writeTrace(Encoding.BINARY, 6);
+        try {
+            String identical = run(0, "--diff", binary.getPath(), text.getPath());
+            assertTrue(identical, identical.startsWith("Traces are identical (12 events)\n"));
+
+            String different = run(1, "--diff", binary.getPath(), other.getPath());
+            assertTrue(different, different.startsWith("Traces differ at event 10: reaction 5 vs. reaction 6\nLast common checkpoint: event 8\n"));
+            assertTrue(different, different.contains("  reaction jobs: 5, ids 1 to 6\n"));
+        } finally {
+            binary.delete();
+            text.delete();
+            other.delete();
+        }
+    }
+}
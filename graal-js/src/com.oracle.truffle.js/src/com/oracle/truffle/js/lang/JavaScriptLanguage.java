@@ -111,6 +111,8 @@ import com.oracle.truffle.js.runtime.JSRealm;
 import com.oracle.truffle.js.runtime.JSRuntime;
 import com.oracle.truffle.js.runtime.JSTruffleOptions;
 import com.oracle.truffle.js.runtime.LargeInteger;
+import com.oracle.truffle.js.runtime.PromiseJobsStatistics;
+import com.oracle.truffle.js.runtime.RecordAndReplay;
 import com.oracle.truffle.js.runtime.Symbol;
 import com.oracle.truffle.js.runtime.builtins.JSArray;
 import com.oracle.truffle.js.runtime.builtins.JSDate;
@@ -460,6 +462,14 @@ public class JavaScriptLanguage extends AbstractJavaScriptLanguage {
     protected void disposeContext(JSRealm realm) {
         CompilerAsserts.neverPartOfCompilation();
         realm.setGlobalObject(Undefined.instance);
+        RecordAndReplay recordAndReplay = realm.getAgent().getRecordAndReplay();
+        if (recordAndReplay != null) {
+            recordAndReplay.close();
+        }
+        PromiseJobsStatistics promiseJobsStatistics = realm.getAgent().getPromiseJobsStatistics();
+        if (promiseJobsStatistics != null) {
+            promiseJobsStatistics.close();
+        }
     }
 
     @Override
@@ -101,6 +101,7 @@ import com.oracle.truffle.js.runtime.JSNoSuchMethodAdapter;
 import com.oracle.truffle.js.runtime.JSRealm;
 import com.oracle.truffle.js.runtime.JSTruffleOptions;
 import com.oracle.truffle.js.runtime.JavaScriptFunctionCallNode;
+import com.oracle.truffle.js.runtime.RecordAndReplay;
 import com.oracle.truffle.js.runtime.UserScriptException;
 import com.oracle.truffle.js.runtime.builtins.JSFunction;
 import com.oracle.truffle.js.runtime.builtins.JSFunctionData;
@@ -1386,6 +1387,7 @@ public abstract class JSFunctionCallNode extends JavaScriptNode implements JavaS
         @Child private ExportArgumentsNode exportArgumentsNode;
         @Child private JSForeignToJSTypeNode typeConvertNode;
         private final ValueProfile functionClassProfile = ValueProfile.createClassProfile();
+        @CompilationFinal private LanguageReference<JavaScriptLanguage> languageRef;
 
         ForeignCallNode(int expectedArgumentCount) {
             this.exportArgumentsNode = ExportArgumentsNode.create(expectedArgumentCount);
@@ -1408,6 +1410,48 @@ public abstract class JSFunctionCallNode extends JavaScriptNode implements JavaS
         protected final Object convertForeignReturn(Object returnValue) {
             return typeConvertNode.executeWithTarget(returnValue);
         }
+
+        protected final JSContext getContext() {
+            if (languageRef == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                languageRef = lookupLanguageReference(JavaScriptLanguage.class);
+            }
+            return languageRef.get().getJSContext();
+        }
+
+        @Override
+        public final Object executeCall(Object[] arguments) {
+            JSContext context = getContext();
+            if (context.isRecordAndReplayNotUsed()) {
+                return executeForeignCall(arguments);
+            }
+            RecordAndReplay recorder = RecordAndReplay.getInteropRecorder(context);
+            if (recorder == null) {
+                return executeForeignCall(arguments);
+            }
+            return executeRecordedCall(recorder, arguments);
+        }
+
+        /**
+         * Substitutes a recorded result for the call when replaying, or records its result.
+         */
+        private Object executeRecordedCall(RecordAndReplay recorder, Object[] arguments) {
+            Object replayed = recorder.replayInteropResult();
+            if (replayed != null) {
+                return replayed;
+            }
+            Object result;
+            try {
+                result = executeForeignCall(arguments);
+            } catch (RuntimeException e) {
+                recorder.recordInteropError(e);
+                throw e;
+            }
+            recorder.recordInteropResult(result);
+            return result;
+        }
+
+        protected abstract Object executeForeignCall(Object[] arguments);
     }
 
     private static class ForeignExecuteNode extends ForeignCallNode {
@@ -1419,7 +1463,7 @@ public abstract class JSFunctionCallNode extends JavaScriptNode implements JavaS
         }
 
         @Override
-        public Object executeCall(Object[] arguments) {
+        protected Object executeForeignCall(Object[] arguments) {
             Object function = getForeignFunction(arguments);
             Object[] callArguments = exportArguments(arguments);
             try {
@@ -1437,7 +1481,6 @@ public abstract class JSFunctionCallNode extends JavaScriptNode implements JavaS
         @Child private ForeignObjectPrototypeNode foreignObjectPrototypeNode;
         @Child protected JSFunctionCallNode callOnPrototypeNode;
         @Child protected PropertyGetNode getFunctionNode;
-        @CompilationFinal private LanguageReference<JavaScriptLanguage> languageRef;
 
         ForeignInvokeNode(String functionName, int expectedArgumentCount) {
             super(expectedArgumentCount);
@@ -1445,7 +1488,7 @@ public abstract class JSFunctionCallNode extends JavaScriptNode implements JavaS
         }
 
         @Override
-        public Object executeCall(Object[] arguments) {
+        protected Object executeForeignCall(Object[] arguments) {
             Object receiver = thisClassProfile.profile(JSArguments.getThisObject(arguments));
             Object[] callArguments = exportArguments(arguments);
             Object callReturn;
@@ -1485,14 +1528,6 @@ public abstract class JSFunctionCallNode extends JavaScriptNode implements JavaS
             }
             return convertForeignReturn(callReturn);
         }
-
-        private JSContext getContext() {
-            if (languageRef == null) {
-                CompilerDirectives.transferToInterpreterAndInvalidate();
-                languageRef = lookupLanguageReference(JavaScriptLanguage.class);
-            }
-            return languageRef.get().getJSContext();
-        }
     }
 
     /**
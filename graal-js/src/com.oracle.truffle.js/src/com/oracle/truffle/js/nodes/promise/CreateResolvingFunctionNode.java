@@ -65,6 +65,7 @@ import com.oracle.truffle.js.runtime.builtins.JSFunction;
 import com.oracle.truffle.js.runtime.builtins.JSFunctionData;
 import com.oracle.truffle.js.runtime.builtins.JSPromise;
 import com.oracle.truffle.js.runtime.objects.Undefined;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
 import com.oracle.truffle.js.runtime.util.Pair;
 
 public class CreateResolvingFunctionNode extends JavaScriptBaseNode {
@@ -161,7 +162,7 @@ public class CreateResolvingFunctionNode extends JavaScriptBaseNode {
                     return fulfillPromise(promise, resolution);
                 }
                 DynamicObject job = promiseResolveThenableJob(promise, resolution, then);
-                context.promiseEnqueueJob(context.getRealm(), job);
+                context.promiseEnqueueJob(context.getRealm(), job, TraceFormat.JOB_THENABLE);
                 return Undefined.instance;
             }
 
@@ -66,6 +66,7 @@ import com.oracle.truffle.js.runtime.objects.PromiseCapabilityRecord;
 import com.oracle.truffle.js.runtime.objects.PromiseReactionRecord;
 import com.oracle.truffle.js.runtime.objects.ScriptOrModule;
 import com.oracle.truffle.js.runtime.objects.Undefined;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
 import com.oracle.truffle.js.runtime.util.Pair;
 
 /**
@@ -127,7 +128,7 @@ public class ImportCallNode extends JavaScriptNode {
         } else {
             // default implementation
             PromiseCapabilityRecord promiseCapability = newPromiseCapability();
-            context.promiseEnqueueJob(realm, createImportModuleDynamicallyJob((ScriptOrModule) referencingScriptOrModule, specifier, promiseCapability));
+            context.promiseEnqueueJob(realm, createImportModuleDynamicallyJob((ScriptOrModule) referencingScriptOrModule, specifier, promiseCapability), TraceFormat.JOB_HOST);
             return promiseCapability.getPromise();
         }
     }
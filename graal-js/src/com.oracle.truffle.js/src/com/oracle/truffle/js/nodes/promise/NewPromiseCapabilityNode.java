@@ -57,6 +57,7 @@ import com.oracle.truffle.js.nodes.unary.IsConstructorNode;
 import com.oracle.truffle.js.runtime.Errors;
 import com.oracle.truffle.js.runtime.JSArguments;
 import com.oracle.truffle.js.runtime.JSContext;
+import com.oracle.truffle.js.runtime.JSContextOptions;
 import com.oracle.truffle.js.runtime.JSFrameUtil;
 import com.oracle.truffle.js.runtime.JavaScriptRootNode;
 import com.oracle.truffle.js.runtime.builtins.JSFunction;
@@ -95,7 +96,7 @@ public class NewPromiseCapabilityNode extends JavaScriptBaseNode {
             errorBranch.enter();
             throw Errors.createTypeErrorNotAConstructor(constructor);
         }
-        PromiseCapabilityRecord promiseCapability = PromiseCapabilityRecord.create(Undefined.instance, Undefined.instance, Undefined.instance);
+        PromiseCapabilityRecord promiseCapability = PromiseCapabilityRecord.create(Undefined.instance, Undefined.instance, Undefined.instance, nextCapabilityId());
         DynamicObject executor = getCapabilitiesExecutor(promiseCapability);
         DynamicObject promise = (DynamicObject) newPromise.executeCall(JSArguments.create(Undefined.instance, constructor, executor));
         if (!isCallable.executeBoolean(promiseCapability.getResolve()) || !isCallable.executeBoolean(promiseCapability.getReject())) {
@@ -106,6 +107,18 @@ public class NewPromiseCapabilityNode extends JavaScriptBaseNode {
         return promiseCapability;
     }
 
+    /**
+     * Capability ids are only needed to record and replay the promise job order. They are allocated
+     * outside of recording windows, too, so that they are the same in every run.
+     */
+    private int nextCapabilityId() {
+        JSContextOptions options = context.getContextOptions();
+        if (!options.isRecord() && !options.isReplay()) {
+            return 0;
+        }
+        return context.getRealm().getAgent().nextPromiseCapabilityId();
+    }
+
     private DynamicObject getCapabilitiesExecutor(PromiseCapabilityRecord promiseCapability) {
         JSFunctionData functionData = context.getOrCreateBuiltinFunctionData(JSContext.BuiltinFunctionKey.PromiseGetCapabilitiesExecutor, (c) -> createGetCapabilitiesExecutorImpl(c));
         DynamicObject function = JSFunction.create(context.getRealm(), functionData);
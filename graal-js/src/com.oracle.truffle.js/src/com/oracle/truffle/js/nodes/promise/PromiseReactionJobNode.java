@@ -61,6 +61,7 @@ import com.oracle.truffle.js.runtime.PromiseHook;
 import com.oracle.truffle.js.runtime.builtins.JSFunction;
 import com.oracle.truffle.js.runtime.builtins.JSFunctionData;
 import com.oracle.truffle.js.runtime.objects.PromiseCapabilityRecord;
+import com.oracle.truffle.js.runtime.objects.PromiseReactionJobRecord;
 import com.oracle.truffle.js.runtime.objects.PromiseReactionRecord;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
@@ -82,14 +83,28 @@ public class PromiseReactionJobNode extends JavaScriptBaseNode {
         return new PromiseReactionJobNode(context);
     }
 
+    /**
+     * Returns the job as a function object, for jobs that might be run by code other than the
+     * agent.
+     */
     public DynamicObject execute(Object reaction, Object argument) {
-        JSFunctionData functionData = context.getOrCreateBuiltinFunctionData(JSContext.BuiltinFunctionKey.PromiseReactionJob, (c) -> createPromiseReactionJobImpl(c));
-        DynamicObject function = JSFunction.create(context.getRealm(), functionData);
+        DynamicObject function = JSFunction.create(context.getRealm(), getFunctionData());
         setReaction.setValue(function, reaction);
         setArgument.setValue(function, argument);
         return function;
     }
 
+    /**
+     * Returns the job as a record that is run by the agent without creating a function object.
+     */
+    public PromiseReactionJobRecord createRecord(PromiseReactionRecord reaction, Object argument) {
+        return PromiseReactionJobRecord.create(reaction, argument, context.getRealm(), getFunctionData().getCallTarget());
+    }
+
+    private JSFunctionData getFunctionData() {
+        return context.getOrCreateBuiltinFunctionData(JSContext.BuiltinFunctionKey.PromiseReactionJob, (c) -> createPromiseReactionJobImpl(c));
+    }
+
     private static JSFunctionData createPromiseReactionJobImpl(JSContext context) {
         class PromiseReactionJob extends JavaScriptRootNode {
             @Child private PropertyGetNode getReaction = PropertyGetNode.createGetHidden(REACTION_KEY, context);
@@ -99,13 +114,23 @@ public class PromiseReactionJobNode extends JavaScriptBaseNode {
             @Child private JSFunctionCallNode callHandlerNode;
             @Child private TryCatchNode.GetErrorObjectNode getErrorObjectNode;
             private final ConditionProfile handlerProf = ConditionProfile.createBinaryProfile();
+            private final ConditionProfile recordProf = ConditionProfile.createBinaryProfile();
             private final ValueProfile typeProfile = ValueProfile.createClassProfile();
 
             @Override
             public Object execute(VirtualFrame frame) {
-                DynamicObject functionObject = JSFrameUtil.getFunctionObject(frame);
-                PromiseReactionRecord reaction = (PromiseReactionRecord) getReaction.getValue(functionObject);
-                Object argument = getArgument.getValue(functionObject);
+                Object[] arguments = frame.getArguments();
+                PromiseReactionRecord reaction;
+                Object argument;
+                if (recordProf.profile(JSArguments.getFunctionObject(arguments) == Undefined.instance)) {
+                    PromiseReactionJobRecord job = (PromiseReactionJobRecord) JSArguments.getUserArgument(arguments, 0);
+                    reaction = job.getReaction();
+                    argument = job.getArgument();
+                } else {
+                    DynamicObject functionObject = JSFrameUtil.getFunctionObject(frame);
+                    reaction = (PromiseReactionRecord) getReaction.getValue(functionObject);
+                    argument = getArgument.getValue(functionObject);
+                }
 
                 PromiseCapabilityRecord promiseCapability = reaction.getCapability();
                 Object handler = reaction.getHandler();
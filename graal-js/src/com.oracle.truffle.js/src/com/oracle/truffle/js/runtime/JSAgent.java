@@ -42,15 +42,25 @@ package com.oracle.truffle.js.runtime;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.RootNode;
 import com.oracle.truffle.api.object.DynamicObject;
+import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.js.nodes.function.InternalCallNode;
+import com.oracle.truffle.js.runtime.JSAgentWaiterList.AtomicSectionLock;
 import com.oracle.truffle.js.runtime.JSAgentWaiterList.JSAgentWaiterListEntry;
 import com.oracle.truffle.js.runtime.builtins.JSArrayBufferView;
 import com.oracle.truffle.js.runtime.builtins.JSFunction;
 import com.oracle.truffle.js.runtime.builtins.JSSharedArrayBuffer;
+import com.oracle.truffle.js.runtime.objects.PromiseReactionJobRecord;
 import com.oracle.truffle.js.runtime.objects.Undefined;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
+import com.oracle.truffle.js.runtime.trace.TraceMetrics;
 
 /**
  * Base class for ECMA2017 8.7 Agents.
@@ -67,9 +77,15 @@ public abstract class JSAgent implements EcmaAgent {
     private boolean inCriticalSection;
 
     /**
-     * ECMA 8.4 "PromiseJobs" job queue.
+     * Set by another agent to wake this agent from {@link #suspend}.
      */
-    private final Deque<DynamicObject> promiseJobsQueue;
+    private volatile boolean woken;
+    private volatile Thread suspendedThread;
+
+    /**
+     * ECMA 8.4 "PromiseJobs" job queue. Holds job functions and {@link PromiseReactionJobRecord}s.
+     */
+    private final Deque<Object> promiseJobsQueue;
 
     /**
      * According to ECMA2017 8.4 the queue of pending jobs (promises reactions) must be processed
@@ -80,6 +96,38 @@ public abstract class JSAgent implements EcmaAgent {
      */
     private int interopCallStackDepth;
 
+    /**
+     * Recorder of the promise job order, {@code null} unless recording or replay is enabled.
+     */
+    private RecordAndReplay recordAndReplay;
+
+    /**
+     * Statistics of the promise job queue, {@code null} unless enabled.
+     */
+    private PromiseJobsStatistics promiseJobsStatistics;
+
+    /**
+     * Last promise capability id handed out by this agent. An agent runs on a single thread at a
+     * time, so ids are deterministic for a given program and need no synchronization.
+     */
+    private int promiseCapabilityId;
+
+    /**
+     * Number of promise jobs enqueued by this agent so far.
+     */
+    private long enqueuedPromiseJobs;
+
+    /**
+     * Number of promise jobs of each {@link TraceFormat#JOB_THENABLE kind} other than reactions
+     * enqueued so far, which identify these jobs for record and replay.
+     */
+    private final int[] promiseJobSequences = new int[TraceFormat.JOB_KINDS];
+
+    /**
+     * Number of shared array buffers created by this agent.
+     */
+    private int sharedBuffers;
+
     public JSAgent(boolean canBlock) {
         this.signifier = signifierGenerator.incrementAndGet();
         this.canBlock = canBlock;
@@ -96,13 +144,63 @@ public abstract class JSAgent implements EcmaAgent {
         return canBlock;
     }
 
+    public RecordAndReplay getRecordAndReplay() {
+        return recordAndReplay;
+    }
+
+    /**
+     * Returns the metrics of the record and replay of this agent, or {@code null} if neither is
+     * enabled.
+     */
+    public TraceMetrics getRecordAndReplayMetrics() {
+        return recordAndReplay == null ? null : recordAndReplay.getMetrics();
+    }
+
+    public void setRecordAndReplay(RecordAndReplay recordAndReplay) {
+        this.recordAndReplay = recordAndReplay;
+    }
+
+    /**
+     * Returns the statistics of the promise job queue of this agent, or {@code null} if they are
+     * not enabled.
+     */
+    public PromiseJobsStatistics getPromiseJobsStatistics() {
+        return promiseJobsStatistics;
+    }
+
+    public void setPromiseJobsStatistics(PromiseJobsStatistics promiseJobsStatistics) {
+        this.promiseJobsStatistics = promiseJobsStatistics;
+    }
+
+    /**
+     * Allocates the id of a new promise capability. Ids are unique within this agent only; traces
+     * identify the agent by its {@link #getSignifier() signifier}.
+     */
+    public int nextPromiseCapabilityId() {
+        return ++promiseCapabilityId;
+    }
+
+    /**
+     * Allocates the id of a new shared array buffer, which identifies its locks in record and replay
+     * traces. Ids repeat after 2^16 buffers of the same agent.
+     */
+    public int nextSharedBufferId() {
+        return (signifier << 16) | (++sharedBuffers & 0xFFFF);
+    }
+
     public boolean inCriticalSection() {
         return inCriticalSection;
     }
 
     public void criticalSectionEnter(JSAgentWaiterListEntry wl) {
         assert !inCriticalSection;
-        wl.lock();
+        if (recordAndReplay == null) {
+            wl.lock();
+        } else {
+            recordAndReplay.awaitSyncTurn(wl.getSyncPoint());
+            wl.lock();
+            recordAndReplay.syncAcquired(wl.getSyncPoint());
+        }
         inCriticalSection = true;
     }
 
@@ -112,53 +210,274 @@ public abstract class JSAgent implements EcmaAgent {
         wl.unlock();
     }
 
-    public void atomicSectionEnter(DynamicObject target) {
+    /**
+     * ECMA2017 24.4.1.9 Suspend. Leaves the critical section and parks the thread of this agent
+     * until another agent {@link #wake() wakes} it or the timeout expires. Returns {@code true} if
+     * the agent was woken.
+     *
+     * An interrupt of the thread ends the wait as well. Unless the agent was woken at the same
+     * time, the execution is then cancelled like an interrupted loop is, see
+     * {@link JSCancelledExecutionException}. The interrupt status is cleared while parking, so a
+     * pending interrupt cannot make later waits return immediately.
+     *
+     * @param timeout the timeout in milliseconds
+     */
+    @TruffleBoundary
+    public final boolean suspend(JSAgentWaiterListEntry wl, long timeout) {
+        assert inCriticalSection;
+        woken = false;
+        suspendedThread = Thread.currentThread();
+        criticalSectionLeave(wl);
+        boolean interrupted = false;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            long remaining = deadline - System.nanoTime();
+            while (!woken && remaining > 0) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                    break;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        } finally {
+            suspendedThread = null;
+        }
+        criticalSectionEnter(wl);
+        if (interrupted) {
+            if (!woken) {
+                throw new JSCancelledExecutionException("Thread was interrupted.", null);
+            }
+            // The wakeup wins, the cancellation checks of the caller see the interrupt.
+            Thread.currentThread().interrupt();
+        }
+        return woken;
+    }
+
+    /**
+     * ECMA2017 24.4.1.10 WakeWaiter. Called by another agent in the critical section of the waiter
+     * list this agent waits in, so the wakeup cannot get lost before this agent parks.
+     */
+    public final void wake() {
+        woken = true;
+        LockSupport.unpark(suspendedThread);
+    }
+
+    /**
+     * Enters an atomic section of the element at the given index of a shared typed array. Atomic
+     * sections of elements in different 8-byte words of the buffer usually do not exclude each
+     * other, see {@link JSAgentWaiterList}.
+     */
+    public void atomicSectionEnter(DynamicObject target, int index) {
         assert !inAtomicSection;
-        assert JSArrayBufferView.isJSArrayBufferView(target);
-        DynamicObject arrayBuffer = JSArrayBufferView.getArrayBuffer(target, JSArrayBufferView.isJSArrayBufferView(target));
-        JSAgentWaiterList waiterList = JSSharedArrayBuffer.getWaiterList(arrayBuffer);
-        waiterList.lock();
+        AtomicSectionLock lock = getAtomicSectionLock(target, index);
+        if (recordAndReplay == null) {
+            lock.lock();
+        } else {
+            recordAndReplay.awaitSyncTurn(lock.getSyncPoint());
+            lock.lock();
+            recordAndReplay.syncAcquired(lock.getSyncPoint());
+        }
         inAtomicSection = true;
     }
 
-    public void atomicSectionLeave(DynamicObject target) {
+    public void atomicSectionLeave(DynamicObject target, int index) {
         assert inAtomicSection;
+        AtomicSectionLock lock = getAtomicSectionLock(target, index);
+        inAtomicSection = false;
+        lock.unlock();
+    }
+
+    private static AtomicSectionLock getAtomicSectionLock(DynamicObject target, int index) {
         assert JSArrayBufferView.isJSArrayBufferView(target);
         DynamicObject arrayBuffer = JSArrayBufferView.getArrayBuffer(target, JSArrayBufferView.isJSArrayBufferView(target));
         JSAgentWaiterList waiterList = JSSharedArrayBuffer.getWaiterList(arrayBuffer);
-        inAtomicSection = false;
-        waiterList.unlock();
+        return waiterList.getAtomicSectionLock(JSAgentWaiterList.getByteIndex(target, index));
     }
 
     @TruffleBoundary
     public final void enqueuePromiseJob(DynamicObject job) {
-        RecordAndReplay.getInstance().serialize(job);
+        enqueuedPromiseJobs++;
         promiseJobsQueue.push(job);
     }
 
+    @TruffleBoundary
+    public final void enqueuePromiseReactionJob(PromiseReactionJobRecord job) {
+        enqueuedPromiseJobs++;
+        promiseJobsQueue.push(job);
+    }
+
+    /**
+     * Enqueues a job that is not a promise reaction job.
+     *
+     * @param kind the {@link TraceFormat#JOB_THENABLE kind} of the job
+     */
+    @TruffleBoundary
+    public final void enqueuePromiseJob(DynamicObject job, int kind) {
+        promiseJobSequences[kind]++;
+        enqueuePromiseJob(job);
+    }
+
+    /**
+     * Enqueues a job of an agent that might record or replay its promise jobs. Only used while
+     * {@link JSContext#isRecordAndReplayNotUsed()} returns {@code false}.
+     *
+     * @param kind the {@link TraceFormat#JOB_THENABLE kind} of the job
+     */
+    @TruffleBoundary
+    public final void enqueueRecordedPromiseJob(DynamicObject job, int kind) {
+        int jobId = TraceFormat.jobId(kind, ++promiseJobSequences[kind]);
+        enqueueRecordedJob(job, jobId);
+    }
+
+    /**
+     * Enqueues a promise reaction job of an agent that might record or replay its promise jobs.
+     *
+     * @param jobId the id of the job, see {@link RecordAndReplay#getJobId}
+     */
+    @TruffleBoundary
+    public final void enqueueRecordedReactionJob(PromiseReactionJobRecord job, int jobId) {
+        enqueueRecordedJob(job, jobId);
+    }
+
+    private void enqueueRecordedJob(Object job, int jobId) {
+        if (recordAndReplay == null || !recordAndReplay.isActive()) {
+            enqueuedPromiseJobs++;
+            promiseJobsQueue.push(job);
+            return;
+        }
+        long ordinal = enqueuedPromiseJobs++;
+        int queued = promiseJobsQueue.size();
+        recordAndReplay.serialize(jobId, ordinal, queued);
+        if (recordAndReplay.addReplayJob(job, jobId, ordinal, queued)) {
+            return;
+        }
+        promiseJobsQueue.push(job);
+    }
 
     @TruffleBoundary
     public final void processAllPromises() {
+        boolean replayed = recordAndReplay != null && recordAndReplay.isReplay();
+        Object nextJob = nextPromiseJob(replayed);
+        if (nextJob == null) {
+            return;
+        }
+        /* Kept in locals, jobs might drain the queue again while this drain runs. */
+        PromiseJobsStatistics statistics = promiseJobsStatistics;
+        long drainStart = 0;
+        long finishedJobs = 0;
+        if (statistics != null) {
+            int queued = promiseJobsQueue.size() + 1;
+            if (replayed) {
+                queued += recordAndReplay.getPendingReplayJobs();
+            }
+            statistics.drainStarted(queued);
+            drainStart = System.nanoTime();
+            finishedJobs = statistics.getFinishedJobs();
+        }
         try {
-            while (!promiseJobsQueue.isEmpty()) {
-                if(!RecordAndReplay.getInstance().reorganizeJobQueue(promiseJobsQueue)) {
-                    return;
-                }
+            while (nextJob != null) {
+                nextJob = runPromiseJobs(nextJob, replayed);
+            }
+        } finally {
+            if (statistics != null) {
+                statistics.drainFinished(drainStart, finishedJobs);
+            }
+        }
+    }
+
+    /**
+     * Returns the job to run next, or {@code null} if there is none. When replaying, jobs that were
+     * enqueued before the replayed segment of the trace started run first, in the order they were
+     * enqueued.
+     */
+    @TruffleBoundary
+    final Object nextPromiseJob(boolean replayed) {
+        Object nextJob = promiseJobsQueue.pollLast();
+        if (nextJob == null && replayed) {
+            nextJob = recordAndReplay.nextReplayJob();
+        }
+        return nextJob;
+    }
+
+    /**
+     * Runs the given job and all directly following jobs of the same realm, entering the context of
+     * the realm only once. Returns the first job of another realm, or {@code null} if no job is
+     * left.
+     */
+    private Object runPromiseJobs(Object firstJob, boolean replayed) {
+        JSRealm jobRealm = getJobRealm(firstJob);
+        if (jobRealm == null) {
+            return nextPromiseJob(replayed);
+        }
+        Object prev = jobRealm.getTruffleContext().enter();
+        try {
+            return jobRealm.getContext().getPromiseJobsCallTarget().call(this, jobRealm, firstJob, replayed);
+        } finally {
+            jobRealm.getTruffleContext().leave(prev);
+        }
+    }
 
-                DynamicObject nextJob = promiseJobsQueue.pollLast();
-                if (JSFunction.isJSFunction(nextJob)) {
-                    JSRealm functionRealm = JSFunction.getRealm(nextJob);
-                    Object prev = functionRealm.getTruffleContext().enter();
-                    try {
-                        String name =  JSFunction.getFunctionName(nextJob);
-                        JSFunction.call(nextJob, Undefined.instance, JSArguments.EMPTY_ARGUMENTS_ARRAY);
-                    } finally {
-                        functionRealm.getTruffleContext().leave(prev);
-                    }
+    /**
+     * Returns the realm in which the job runs, or {@code null} if the job is not runnable.
+     */
+    static JSRealm getJobRealm(Object job) {
+        if (job instanceof PromiseReactionJobRecord) {
+            return ((PromiseReactionJobRecord) job).getRealm();
+        } else if (JSFunction.isJSFunction(job)) {
+            return JSFunction.getRealm((DynamicObject) job);
+        }
+        return null;
+    }
+
+    public static RootNode createPromiseJobsRootNode(JSContext context) {
+        return new PromiseJobsRootNode(context);
+    }
+
+    /**
+     * Runs a batch of promise jobs of one realm, see {@link #runPromiseJobs}. Arguments are the
+     * agent, the realm, the first job of the batch and whether jobs are replayed. Jobs are called
+     * through a call node that caches their call targets.
+     */
+    static final class PromiseJobsRootNode extends JavaScriptRootNode {
+        private static final SourceSection SOURCE_SECTION = JSFunction.createBuiltinSourceSection("promise jobs");
+
+        @Child private InternalCallNode callNode;
+
+        PromiseJobsRootNode(JSContext context) {
+            super(context.getLanguage(), SOURCE_SECTION, null);
+            this.callNode = InternalCallNode.create();
+        }
+
+        @Override
+        public Object execute(VirtualFrame frame) {
+            Object[] arguments = frame.getArguments();
+            JSAgent agent = (JSAgent) arguments[0];
+            JSRealm jobRealm = (JSRealm) arguments[1];
+            Object job = arguments[2];
+            boolean replayed = (boolean) arguments[3];
+            do {
+                PromiseJobsStatistics statistics = agent.promiseJobsStatistics;
+                if (statistics != null) {
+                    long start = System.nanoTime();
+                    callPromiseJob(job);
+                    statistics.jobFinished(job, start);
+                } else {
+                    callPromiseJob(job);
                 }
+                job = agent.nextPromiseJob(replayed);
+            } while (job != null && getJobRealm(job) == jobRealm);
+            return job;
+        }
+
+        private void callPromiseJob(Object job) {
+            if (job instanceof PromiseReactionJobRecord) {
+                PromiseReactionJobRecord reactionJob = (PromiseReactionJobRecord) job;
+                callNode.execute(reactionJob.getCallTarget(), JSArguments.createOneArg(Undefined.instance, Undefined.instance, reactionJob));
+            } else {
+                DynamicObject function = (DynamicObject) job;
+                callNode.execute(JSFunction.getCallTarget(function), JSArguments.createZeroArg(Undefined.instance, function));
             }
-        } finally {
-            //promiseJobsQueue.clear();
         }
     }
 
@@ -41,42 +41,117 @@
 package com.oracle.truffle.js.runtime;
 
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.object.DynamicObject;
+import com.oracle.truffle.js.runtime.builtins.JSArrayBufferView;
+import com.oracle.truffle.js.runtime.trace.SyncPoint;
+
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Java-based implementation of ECMA2017 WaiterList (24.4.1.2).
+ *
+ * Waiter lists are kept per byte index of the shared buffer, each with its own monitor. Atomic
+ * operations lock one of {@link #STRIPES} stripes chosen by the 8-byte aligned word they access,
+ * so agents using different slots of one buffer rarely contend for the same lock, while accesses
+ * of views with different element types to the same memory still exclude each other.
+ *
+ * The monitors are {@link SyncPoint sync points}, so their acquisition order can be recorded and
+ * replayed. They are identified by the id of the shared buffer, see
+ * {@link JSAgent#nextSharedBufferId()}, and the byte index of the waiter list or the stripe.
  */
 public class JSAgentWaiterList {
 
+    private static final int STRIPES = 64;
+    private static final int STRIPE_SYNC_ID = 0x80000000;
+
     private final Map<Integer, JSAgentWaiterListEntry> waiters;
 
-    private final Lock globalMonitor;
+    /* Locks of the atomic sections, created when first used. */
+    private final AtomicReferenceArray<AtomicSectionLock> stripes;
+
+    private final int id;
 
     @TruffleBoundary
-    public JSAgentWaiterList() {
+    public JSAgentWaiterList(int id) {
         this.waiters = new ConcurrentHashMap<>();
-        this.globalMonitor = new ReentrantLock();
+        this.stripes = new AtomicReferenceArray<>(STRIPES);
+        this.id = id;
+    }
+
+    private static long getSyncId(int buffer, int indexPos) {
+        return ((long) buffer << Integer.SIZE) | ((indexPos + 1) & 0xFFFFFFFFL);
     }
 
+    /**
+     * Returns the index in the shared buffer of the first byte of the element of a view.
+     */
+    public static int getByteIndex(DynamicObject view, int index) {
+        return JSArrayBufferView.typedArrayGetOffset(view) + index * JSArrayBufferView.typedArrayGetArrayType(view).bytesPerElement();
+    }
+
+    /**
+     * Returns the waiter list of the given byte index.
+     */
     public JSAgentWaiterListEntry getListForIndex(int indexPos) {
-        JSAgentWaiterListEntry list = Boundaries.mapPutIfAbsent(waiters, indexPos, new JSAgentWaiterListEntry());
+        JSAgentWaiterListEntry list = Boundaries.mapGet(waiters, indexPos);
         if (list == null) {
-            return Boundaries.mapGet(waiters, indexPos);
-        } else {
-            return list;
+            list = createListForIndex(indexPos);
+        }
+        return list;
+    }
+
+    @TruffleBoundary
+    private JSAgentWaiterListEntry createListForIndex(int indexPos) {
+        return waiters.computeIfAbsent(indexPos, i -> new JSAgentWaiterListEntry(getSyncId(id, i)));
+    }
+
+    /**
+     * Returns the lock of atomic sections that access the given byte index.
+     */
+    public AtomicSectionLock getAtomicSectionLock(int byteIndex) {
+        int stripe = (byteIndex >>> 3) & (STRIPES - 1);
+        AtomicSectionLock lock = stripes.get(stripe);
+        if (lock == null) {
+            lock = createAtomicSectionLock(stripe);
         }
+        return lock;
     }
 
-    public void lock() {
-        globalMonitor.lock();
+    @TruffleBoundary
+    private AtomicSectionLock createAtomicSectionLock(int stripe) {
+        AtomicSectionLock lock = new AtomicSectionLock(((long) id << Integer.SIZE) | ((STRIPE_SYNC_ID | stripe) & 0xFFFFFFFFL));
+        if (stripes.compareAndSet(stripe, null, lock)) {
+            return lock;
+        }
+        return stripes.get(stripe);
     }
 
-    public void unlock() {
-        globalMonitor.unlock();
+    public static final class AtomicSectionLock {
+
+        private final Lock monitor;
+        private final SyncPoint syncPoint;
+
+        AtomicSectionLock(long syncId) {
+            this.monitor = new ReentrantLock();
+            this.syncPoint = new SyncPoint(syncId);
+        }
+
+        public void lock() {
+            monitor.lock();
+        }
+
+        public void unlock() {
+            monitor.unlock();
+        }
+
+        public SyncPoint getSyncPoint() {
+            return syncPoint;
+        }
     }
 
     public static final class JSAgentWaiterListEntry extends ConcurrentLinkedQueue<Integer> {
@@ -84,11 +159,13 @@ public class JSAgentWaiterList {
         private static final long serialVersionUID = 2655886588267252886L;
 
         private final Lock indexMonitor;
+        private final transient SyncPoint syncPoint;
 
         @TruffleBoundary
-        public JSAgentWaiterListEntry() {
+        public JSAgentWaiterListEntry(long syncId) {
             super();
             this.indexMonitor = new ReentrantLock();
+            this.syncPoint = new SyncPoint(syncId);
         }
 
         public void lock() {
@@ -99,6 +176,10 @@ public class JSAgentWaiterList {
             indexMonitor.unlock();
         }
 
+        public SyncPoint getSyncPoint() {
+            return syncPoint;
+        }
+
     }
 
 }
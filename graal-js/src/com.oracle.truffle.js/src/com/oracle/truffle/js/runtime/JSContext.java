@@ -128,8 +128,10 @@ import com.oracle.truffle.js.runtime.objects.JSPrototypeData;
 import com.oracle.truffle.js.runtime.objects.JSShape;
 import com.oracle.truffle.js.runtime.objects.JSShapeData;
 import com.oracle.truffle.js.runtime.objects.Null;
+import com.oracle.truffle.js.runtime.objects.PromiseReactionJobRecord;
 import com.oracle.truffle.js.runtime.objects.ScriptOrModule;
 import com.oracle.truffle.js.runtime.objects.Undefined;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
 import com.oracle.truffle.js.runtime.util.CompilableBiFunction;
 import com.oracle.truffle.js.runtime.util.CompilableFunction;
 import com.oracle.truffle.js.runtime.util.DebugJSAgent;
@@ -203,6 +205,22 @@ public class JSContext {
     private ImportModuleDynamicallyCallback importModuleDynamicallyCallback;
     private final Assumption importModuleDynamicallyCallbackNotUsedAssumption;
 
+    /**
+     * Assumption: No agent of this context records or replays its promise jobs. As long as this
+     * assumption holds, promise jobs are enqueued exactly as without record and replay support.
+     * Agents that only record in windows invalidate it while a window is open; it is replaced by a
+     * valid assumption once no window is open anymore.
+     */
+    @CompilationFinal private volatile Assumption recordAndReplayNotUsedAssumption;
+    /**
+     * Assumption: No recording window closes. Code compiled while a window is open depends on it,
+     * see {@link #isRecordAndReplayNotUsed()}, so that it stops using the recorder once the last
+     * window has closed.
+     */
+    @CompilationFinal private volatile Assumption recordingWindowOpenAssumption;
+    private boolean recordAndReplayAlwaysUsed;
+    private int openRecordingWindows;
+
     private final CallTarget emptyFunctionCallTarget;
     private final CallTarget speciesGetterFunctionCallTarget;
     private volatile CallTarget notConstructibleCallTargetCache;
@@ -210,6 +228,7 @@ public class JSContext {
     private volatile CallTarget boundFunctionCallTargetCache;
     private volatile CallTarget boundFunctionConstructTargetCache;
     private volatile CallTarget boundFunctionConstructNewTargetCache;
+    private volatile CallTarget promiseJobsCallTargetCache;
 
     public enum BuiltinFunctionKey {
         ArrayFlattenIntoArray,
@@ -277,6 +296,7 @@ public class JSContext {
         SharedArrayBufferGetByteLength,
         FunctionAsyncIterator,
         IsGraalRuntime,
+        PromiseJobStats,
     }
 
     @CompilationFinal(dimensions = 1) private final JSFunctionData[] builtinFunctionData;
@@ -425,6 +445,8 @@ public class JSContext {
         this.promiseRejectionTrackerNotUsedAssumption = Truffle.getRuntime().createAssumption("promiseRejectionTrackerNotUsedAssumption");
         this.importMetaInitializerNotUsedAssumption = Truffle.getRuntime().createAssumption("importMetaInitializerNotUsedAssumption");
         this.importModuleDynamicallyCallbackNotUsedAssumption = Truffle.getRuntime().createAssumption("importModuleDynamicallyCallbackNotUsedAssumption");
+        this.recordAndReplayNotUsedAssumption = Truffle.getRuntime().createAssumption("recordAndReplayNotUsedAssumption");
+        this.recordingWindowOpenAssumption = Truffle.getRuntime().createAssumption("recordingWindowOpenAssumption");
 
         this.emptyFunctionCallTarget = createEmptyFunctionCallTarget(lang);
         this.speciesGetterFunctionCallTarget = createSpeciesGetterFunctionCallTarget(lang);
@@ -673,11 +695,38 @@ public class JSContext {
     }
 
     /**
-     * ECMA 8.4.1 EnqueueJob.
+     * ECMA 8.4.1 EnqueueJob of a job enqueued by the embedder.
      */
     public final void promiseEnqueueJob(JSRealm realm, DynamicObject job) {
+        promiseEnqueueJob(realm, job, TraceFormat.JOB_MICROTASK);
+    }
+
+    /**
+     * ECMA 8.4.1 EnqueueJob.
+     *
+     * @param kind the {@link TraceFormat#JOB_THENABLE kind} of the job, which identifies it for
+     *            record and replay together with the number of jobs of that kind enqueued before
+     */
+    public final void promiseEnqueueJob(JSRealm realm, DynamicObject job, int kind) {
+        invalidatePromiseQueueNotUsedAssumption();
+        if (isRecordAndReplayNotUsed()) {
+            realm.getAgent().enqueuePromiseJob(job, kind);
+        } else {
+            realm.getAgent().enqueueRecordedPromiseJob(job, kind);
+        }
+    }
+
+    /**
+     * ECMA 8.4.1 EnqueueJob of a PromiseReactionJob. The job is queued as a record that the agent
+     * runs without creating a function object for it.
+     */
+    public final void promiseEnqueueReactionJob(JSRealm realm, PromiseReactionJobRecord job) {
         invalidatePromiseQueueNotUsedAssumption();
-        realm.getAgent().enqueuePromiseJob(job);
+        if (isRecordAndReplayNotUsed()) {
+            realm.getAgent().enqueuePromiseReactionJob(job);
+        } else {
+            realm.getAgent().enqueueRecordedReactionJob(job, RecordAndReplay.getJobId(job.getReaction()));
+        }
     }
 
     private void invalidatePromiseQueueNotUsedAssumption() {
@@ -694,6 +743,49 @@ public class JSContext {
         }
     }
 
+    /**
+     * Returns whether no agent of this context records or replays its promise jobs right now.
+     * Compiled code that finds record and replay in use is deoptimized when the last recording
+     * window closes, instead of using the recorder until it is compiled again.
+     */
+    public final boolean isRecordAndReplayNotUsed() {
+        if (recordAndReplayNotUsedAssumption.isValid()) {
+            return true;
+        }
+        if (!recordingWindowOpenAssumption.isValid()) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            return recordAndReplayNotUsedAssumption.isValid();
+        }
+        return false;
+    }
+
+    final void invalidateRecordAndReplayNotUsedAssumption() {
+        synchronized (this) {
+            recordAndReplayAlwaysUsed = true;
+            recordAndReplayNotUsedAssumption.invalidate("record and replay used");
+        }
+    }
+
+    final void recordingWindowOpened() {
+        synchronized (this) {
+            if (openRecordingWindows++ == 0) {
+                recordAndReplayNotUsedAssumption.invalidate("recording window opened");
+            }
+        }
+    }
+
+    final void recordingWindowClosed() {
+        synchronized (this) {
+            assert openRecordingWindows > 0;
+            if (--openRecordingWindows == 0 && !recordAndReplayAlwaysUsed) {
+                recordAndReplayNotUsedAssumption = Truffle.getRuntime().createAssumption("recordAndReplayNotUsedAssumption");
+                Assumption windowOpen = recordingWindowOpenAssumption;
+                recordingWindowOpenAssumption = Truffle.getRuntime().createAssumption("recordingWindowOpenAssumption");
+                windowOpen.invalidate("recording window closed");
+            }
+        }
+    }
+
     public TimeProfiler getTimeProfiler() {
         return timeProfiler;
     }
@@ -1111,6 +1203,20 @@ public class JSContext {
         return result;
     }
 
+    @TruffleBoundary
+    public CallTarget getPromiseJobsCallTarget() {
+        CallTarget result = promiseJobsCallTargetCache;
+        if (result == null) {
+            synchronized (this) {
+                result = promiseJobsCallTargetCache;
+                if (result == null) {
+                    result = promiseJobsCallTargetCache = Truffle.getRuntime().createCallTarget(JSAgent.createPromiseJobsRootNode(this));
+                }
+            }
+        }
+        return result;
+    }
+
     public JSFunctionData getBoundFunctionData(boolean constructor) {
         JSFunctionData result = constructor ? boundConstructorFunctionData : boundFunctionData;
         if (result == null) {
@@ -60,6 +60,10 @@ import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.Option;
 import com.oracle.truffle.api.nodes.InvalidAssumptionException;
 import com.oracle.truffle.api.utilities.CyclicAssumption;
+import com.oracle.truffle.js.runtime.trace.AsyncTraceWriter;
+import com.oracle.truffle.js.runtime.trace.DivergenceDetector;
+import com.oracle.truffle.js.runtime.trace.SyncOrder;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
 
 public final class JSContextOptions {
     @CompilationFinal private JSParserOptions parserOptions;
@@ -339,6 +343,128 @@ public final class JSContextOptions {
     public static final OptionKey<Integer> STRING_LENGTH_LIMIT = new OptionKey<>(JSTruffleOptions.StringLengthLimit);
     @CompilationFinal private int stringLengthLimit;
 
+    public static final String PROMISE_JOB_STATS_NAME = JS_OPTION_PREFIX + "promise-job-stats";
+    @Option(name = PROMISE_JOB_STATS_NAME, category = OptionCategory.EXPERT, help = "Collect statistics of the promise job queue, see Graal.promiseJobStats().") //
+    public static final OptionKey<Boolean> PROMISE_JOB_STATS = new OptionKey<>(false);
+    @CompilationFinal private boolean promiseJobStats;
+
+    public static final String PROMISE_JOB_STATS_INTERVAL_NAME = JS_OPTION_PREFIX + "promise-job-stats-interval";
+    @Option(name = PROMISE_JOB_STATS_INTERVAL_NAME, category = OptionCategory.EXPERT, help = "Milliseconds between dumps of the promise job statistics to stderr, 0 to disable. Implies js.promise-job-stats.") //
+    public static final OptionKey<Long> PROMISE_JOB_STATS_INTERVAL = new OptionKey<>(0L);
+    @CompilationFinal private long promiseJobStatsInterval;
+
+    public static final String RECORD_NAME = JS_OPTION_PREFIX + "record";
+    @Option(name = RECORD_NAME, category = OptionCategory.EXPERT, help = "Record the order of promise jobs to a trace file.") //
+    public static final OptionKey<Boolean> RECORD = new OptionKey<>(false);
+    @CompilationFinal private boolean record;
+
+    public static final String REPLAY_NAME = JS_OPTION_PREFIX + "replay";
+    @Option(name = REPLAY_NAME, category = OptionCategory.EXPERT, help = "Run promise jobs in the order recorded in a trace file.") //
+    public static final OptionKey<Boolean> REPLAY = new OptionKey<>(false);
+    @CompilationFinal private boolean replay;
+
+    public static final String TRACE_FILE_NAME = JS_OPTION_PREFIX + "trace-file";
+    @Option(name = TRACE_FILE_NAME, category = OptionCategory.EXPERT, help = "Base name of the record and replay trace files.") //
+    public static final OptionKey<String> TRACE_FILE = new OptionKey<>(TraceFormat.DEFAULT_FILE);
+    @CompilationFinal private String traceFile;
+
+    public static final String TRACE_FORMAT_NAME = JS_OPTION_PREFIX + "trace-format";
+    @Option(name = TRACE_FORMAT_NAME, category = OptionCategory.EXPERT, help = "Encoding of recorded traces: binary or text.") //
+    public static final OptionKey<TraceFormat.Encoding> TRACE_FORMAT = new OptionKey<>(TraceFormat.Encoding.BINARY, new OptionType<>("trace-format", TraceFormat.Encoding::fromString));
+    @CompilationFinal private TraceFormat.Encoding traceFormat;
+
+    public static final String TRACE_ASYNC_NAME = JS_OPTION_PREFIX + "trace-async";
+    @Option(name = TRACE_ASYNC_NAME, category = OptionCategory.EXPERT, help = "Write recorded traces from a background thread.") //
+    public static final OptionKey<Boolean> TRACE_ASYNC = new OptionKey<>(false);
+    @CompilationFinal private boolean traceAsync;
+
+    public static final String TRACE_BUFFER_SIZE_NAME = JS_OPTION_PREFIX + "trace-buffer-size";
+    @Option(name = TRACE_BUFFER_SIZE_NAME, category = OptionCategory.EXPERT, help = "Number of events buffered for the background trace writer.") //
+    public static final OptionKey<Integer> TRACE_BUFFER_SIZE = new OptionKey<>(AsyncTraceWriter.DEFAULT_CAPACITY);
+    @CompilationFinal private int traceBufferSize;
+
+    public static final String TRACE_OVERFLOW_NAME = JS_OPTION_PREFIX + "trace-overflow";
+    @Option(name = TRACE_OVERFLOW_NAME, category = OptionCategory.EXPERT, help = "Behavior when the background trace writer falls behind: block, drop or grow.") //
+    public static final OptionKey<AsyncTraceWriter.OverflowPolicy> TRACE_OVERFLOW = new OptionKey<>(AsyncTraceWriter.OverflowPolicy.BLOCK,
+                    new OptionType<>("trace-overflow", AsyncTraceWriter.OverflowPolicy::fromString));
+    @CompilationFinal private AsyncTraceWriter.OverflowPolicy traceOverflow;
+
+    public static final String TRACE_CHECKPOINT_INTERVAL_NAME = JS_OPTION_PREFIX + "trace-checkpoint-interval";
+    @Option(name = TRACE_CHECKPOINT_INTERVAL_NAME, category = OptionCategory.EXPERT, help = "Number of recorded promise jobs between replay checkpoints, 0 to disable.") //
+    public static final OptionKey<Integer> TRACE_CHECKPOINT_INTERVAL = new OptionKey<>(DivergenceDetector.DEFAULT_CHECKPOINT_INTERVAL);
+    @CompilationFinal private int traceCheckpointInterval;
+
+    public static final String TRACE_DIVERGENCE_NAME = JS_OPTION_PREFIX + "trace-divergence";
+    @Option(name = TRACE_DIVERGENCE_NAME, category = OptionCategory.EXPERT, help = "Behavior when a replayed run diverges from its trace: abort or relaxed.") //
+    public static final OptionKey<DivergenceDetector.Policy> TRACE_DIVERGENCE = new OptionKey<>(DivergenceDetector.Policy.RELAXED,
+                    new OptionType<>("trace-divergence", DivergenceDetector.Policy::fromString));
+    @CompilationFinal private DivergenceDetector.Policy traceDivergence;
+
+    public static final String TRACE_SYNC_TIMEOUT_NAME = JS_OPTION_PREFIX + "trace-sync-timeout";
+    @Option(name = TRACE_SYNC_TIMEOUT_NAME, category = OptionCategory.EXPERT, help = "Milliseconds a replaying agent waits for its turn to acquire a shared lock.") //
+    public static final OptionKey<Long> TRACE_SYNC_TIMEOUT = new OptionKey<>(SyncOrder.DEFAULT_TURN_TIMEOUT_MILLIS);
+    @CompilationFinal private long traceSyncTimeout;
+
+    public static final String TRACE_INTEROP_NAME = JS_OPTION_PREFIX + "trace-interop";
+    @Option(name = TRACE_INTEROP_NAME, category = OptionCategory.EXPERT, help = "Record the results of host calls, or replace host calls with their recorded results.") //
+    public static final OptionKey<Boolean> TRACE_INTEROP = new OptionKey<>(false);
+    @CompilationFinal private boolean traceInterop;
+
+    public static final String TRACE_METRICS_INTERVAL_NAME = JS_OPTION_PREFIX + "trace-metrics-interval";
+    @Option(name = TRACE_METRICS_INTERVAL_NAME, category = OptionCategory.EXPERT, help = "Milliseconds between dumps of the record and replay metrics to stderr, 0 to disable.") //
+    public static final OptionKey<Long> TRACE_METRICS_INTERVAL = new OptionKey<>(0L);
+    @CompilationFinal private long traceMetricsInterval;
+
+    public static final String TRACE_ROTATE_SIZE_NAME = JS_OPTION_PREFIX + "trace-rotate-size";
+    @Option(name = TRACE_ROTATE_SIZE_NAME, category = OptionCategory.EXPERT, help = "Size in bytes after which a new trace segment is started, 0 for no limit. Buffered events count with their uncompressed size.") //
+    public static final OptionKey<Long> TRACE_ROTATE_SIZE = new OptionKey<>(0L);
+    @CompilationFinal private long traceRotateSize;
+
+    public static final String TRACE_ROTATE_INTERVAL_NAME = JS_OPTION_PREFIX + "trace-rotate-interval";
+    @Option(name = TRACE_ROTATE_INTERVAL_NAME, category = OptionCategory.EXPERT, help = "Milliseconds after which a new trace segment is started, 0 for no limit.") //
+    public static final OptionKey<Long> TRACE_ROTATE_INTERVAL = new OptionKey<>(0L);
+    @CompilationFinal private long traceRotateInterval;
+
+    public static final String TRACE_MAX_SIZE_NAME = JS_OPTION_PREFIX + "trace-max-size";
+    @Option(name = TRACE_MAX_SIZE_NAME, category = OptionCategory.EXPERT, help = "Disk budget in bytes for the trace segments of an agent, 0 for no limit.") //
+    public static final OptionKey<Long> TRACE_MAX_SIZE = new OptionKey<>(0L);
+    @CompilationFinal private long traceMaxSize;
+
+    public static final String TRACE_RETAIN_NAME = JS_OPTION_PREFIX + "trace-retain";
+    @Option(name = TRACE_RETAIN_NAME, category = OptionCategory.EXPERT, help = "Number of completed trace segments to keep, 0 to keep all.") //
+    public static final OptionKey<Integer> TRACE_RETAIN = new OptionKey<>(0);
+    @CompilationFinal private int traceRetain;
+
+    public static final String RECORD_WINDOW_NAME = JS_OPTION_PREFIX + "record-window";
+    @Option(name = RECORD_WINDOW_NAME, category = OptionCategory.EXPERT, help = "Length of recording windows in milliseconds, 0 to record the whole run.") //
+    public static final OptionKey<Long> RECORD_WINDOW = new OptionKey<>(0L);
+    @CompilationFinal private long recordWindow;
+
+    public static final String RECORD_WINDOW_PERIOD_NAME = JS_OPTION_PREFIX + "record-window-period";
+    @Option(name = RECORD_WINDOW_PERIOD_NAME, category = OptionCategory.EXPERT, help = "Milliseconds between the starts of recording windows, 0 to open windows on request only.") //
+    public static final OptionKey<Long> RECORD_WINDOW_PERIOD = new OptionKey<>(0L);
+    @CompilationFinal private long recordWindowPeriod;
+
+    public static final String REPLAY_SEGMENT_NAME = JS_OPTION_PREFIX + "replay-segment";
+    @Option(name = REPLAY_SEGMENT_NAME, category = OptionCategory.EXPERT, help = "Number of the recording window to replay, -1 to replay a trace of the whole run.") //
+    public static final OptionKey<Integer> REPLAY_SEGMENT = new OptionKey<>(-1);
+    @CompilationFinal private int replaySegment;
+
+    public static final String REPLAY_FAST_FORWARD_NAME = JS_OPTION_PREFIX + "replay-fast-forward";
+    @Option(name = REPLAY_FAST_FORWARD_NAME, category = OptionCategory.EXPERT, help = "Number of replayed promise jobs during which console output is discarded and only hashed.") //
+    public static final OptionKey<Long> REPLAY_FAST_FORWARD = new OptionKey<>(0L);
+    @CompilationFinal private long replayFastForward;
+
+    public static final String REPLAY_WARMUP_NAME = JS_OPTION_PREFIX + "replay-warmup";
+    @Option(name = REPLAY_WARMUP_NAME, category = OptionCategory.EXPERT, help = "Replay a trace only to warm up the engine: host calls are replaced with their recorded results and divergence is tolerated.") //
+    public static final OptionKey<Boolean> REPLAY_WARMUP = new OptionKey<>(false);
+    @CompilationFinal private boolean replayWarmup;
+
+    public static final String REPLAY_READY_FILE_NAME = JS_OPTION_PREFIX + "replay-ready-file";
+    @Option(name = REPLAY_READY_FILE_NAME, category = OptionCategory.EXPERT, help = "File to which every agent appends its signifier once its warm-up replay is complete.") //
+    public static final OptionKey<String> REPLAY_READY_FILE = new OptionKey<>("");
+    @CompilationFinal private String replayReadyFile;
+
     JSContextOptions(JSParserOptions parserOptions, OptionValues optionValues) {
         this.parserOptions = parserOptions;
         this.optionValues = optionValues;
@@ -407,6 +533,30 @@ public final class JSContextOptions {
         this.validateRegExpLiterals = readBooleanOption(VALIDATE_REGEXP_LITERALS);
         this.functionConstructorCacheSize = readIntegerOption(FUNCTION_CONSTRUCTOR_CACHE_SIZE);
         this.stringLengthLimit = readIntegerOption(STRING_LENGTH_LIMIT);
+        this.record = readBooleanOption(RECORD);
+        this.replay = readBooleanOption(REPLAY);
+        this.promiseJobStats = readBooleanOption(PROMISE_JOB_STATS);
+        this.promiseJobStatsInterval = readLongOption(PROMISE_JOB_STATS_INTERVAL);
+        this.traceFile = TRACE_FILE.getValue(optionValues);
+        this.traceFormat = TRACE_FORMAT.getValue(optionValues);
+        this.traceAsync = readBooleanOption(TRACE_ASYNC);
+        this.traceBufferSize = readIntegerOption(TRACE_BUFFER_SIZE);
+        this.traceOverflow = TRACE_OVERFLOW.getValue(optionValues);
+        this.traceCheckpointInterval = readIntegerOption(TRACE_CHECKPOINT_INTERVAL);
+        this.traceDivergence = TRACE_DIVERGENCE.getValue(optionValues);
+        this.traceSyncTimeout = readLongOption(TRACE_SYNC_TIMEOUT);
+        this.traceInterop = readBooleanOption(TRACE_INTEROP);
+        this.traceMetricsInterval = readLongOption(TRACE_METRICS_INTERVAL);
+        this.traceRotateSize = readLongOption(TRACE_ROTATE_SIZE);
+        this.traceRotateInterval = readLongOption(TRACE_ROTATE_INTERVAL);
+        this.traceMaxSize = readLongOption(TRACE_MAX_SIZE);
+        this.traceRetain = readIntegerOption(TRACE_RETAIN);
+        this.recordWindow = readLongOption(RECORD_WINDOW);
+        this.recordWindowPeriod = readLongOption(RECORD_WINDOW_PERIOD);
+        this.replaySegment = readIntegerOption(REPLAY_SEGMENT);
+        this.replayFastForward = readLongOption(REPLAY_FAST_FORWARD);
+        this.replayWarmup = readBooleanOption(REPLAY_WARMUP);
+        this.replayReadyFile = REPLAY_READY_FILE.getValue(optionValues);
     }
 
     private boolean patchBooleanOption(OptionKey<Boolean> key, String name, boolean oldValue, Consumer<String> invalidate) {
@@ -659,6 +809,102 @@ public final class JSContextOptions {
         return stringLengthLimit;
     }
 
+    public boolean isPromiseJobStats() {
+        return promiseJobStats;
+    }
+
+    public long getPromiseJobStatsInterval() {
+        return promiseJobStatsInterval;
+    }
+
+    public boolean isRecord() {
+        return record;
+    }
+
+    public boolean isReplay() {
+        return replay;
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    public TraceFormat.Encoding getTraceFormat() {
+        return traceFormat;
+    }
+
+    public boolean isTraceAsync() {
+        return traceAsync;
+    }
+
+    public int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+
+    public AsyncTraceWriter.OverflowPolicy getTraceOverflow() {
+        return traceOverflow;
+    }
+
+    public int getTraceCheckpointInterval() {
+        return traceCheckpointInterval;
+    }
+
+    public DivergenceDetector.Policy getTraceDivergence() {
+        return traceDivergence;
+    }
+
+    public long getTraceSyncTimeout() {
+        return traceSyncTimeout;
+    }
+
+    public boolean isTraceInterop() {
+        return traceInterop;
+    }
+
+    public long getTraceMetricsInterval() {
+        return traceMetricsInterval;
+    }
+
+    public long getTraceRotateSize() {
+        return traceRotateSize;
+    }
+
+    public long getTraceRotateInterval() {
+        return traceRotateInterval;
+    }
+
+    public long getTraceMaxSize() {
+        return traceMaxSize;
+    }
+
+    public int getTraceRetain() {
+        return traceRetain;
+    }
+
+    public long getRecordWindow() {
+        return recordWindow;
+    }
+
+    public long getRecordWindowPeriod() {
+        return recordWindowPeriod;
+    }
+
+    public int getReplaySegment() {
+        return replaySegment;
+    }
+
+    public long getReplayFastForward() {
+        return replayFastForward;
+    }
+
+    public boolean isReplayWarmup() {
+        return replayWarmup;
+    }
+
+    public String getReplayReadyFile() {
+        return replayReadyFile;
+    }
+
     @Override
     public int hashCode() {
         int hash = 5;
@@ -692,6 +938,30 @@ public final class JSContextOptions {
         hash = 53 * hash + (this.validateRegExpLiterals ? 1 : 0);
         hash = 53 * hash + this.functionConstructorCacheSize;
         hash = 53 * hash + this.stringLengthLimit;
+        hash = 53 * hash + (this.record ? 1 : 0);
+        hash = 53 * hash + (this.replay ? 1 : 0);
+        hash = 53 * hash + (this.promiseJobStats ? 1 : 0);
+        hash = 53 * hash + (int) this.promiseJobStatsInterval;
+        hash = 53 * hash + Objects.hashCode(this.traceFile);
+        hash = 53 * hash + Objects.hashCode(this.traceFormat);
+        hash = 53 * hash + (this.traceAsync ? 1 : 0);
+        hash = 53 * hash + this.traceBufferSize;
+        hash = 53 * hash + Objects.hashCode(this.traceOverflow);
+        hash = 53 * hash + this.traceCheckpointInterval;
+        hash = 53 * hash + Objects.hashCode(this.traceDivergence);
+        hash = 53 * hash + (int) this.traceSyncTimeout;
+        hash = 53 * hash + (this.traceInterop ? 1 : 0);
+        hash = 53 * hash + (int) this.traceMetricsInterval;
+        hash = 53 * hash + (int) this.traceRotateSize;
+        hash = 53 * hash + (int) this.traceRotateInterval;
+        hash = 53 * hash + (int) this.traceMaxSize;
+        hash = 53 * hash + this.traceRetain;
+        hash = 53 * hash + (int) this.recordWindow;
+        hash = 53 * hash + (int) this.recordWindowPeriod;
+        hash = 53 * hash + this.replaySegment;
+        hash = 53 * hash + (int) this.replayFastForward;
+        hash = 53 * hash + (this.replayWarmup ? 1 : 0);
+        hash = 53 * hash + Objects.hashCode(this.replayReadyFile);
         return hash;
     }
 
@@ -794,6 +1064,78 @@ public final class JSContextOptions {
         if (this.stringLengthLimit != other.stringLengthLimit) {
             return false;
         }
+        if (this.record != other.record) {
+            return false;
+        }
+        if (this.replay != other.replay) {
+            return false;
+        }
+        if (this.promiseJobStats != other.promiseJobStats) {
+            return false;
+        }
+        if (this.promiseJobStatsInterval != other.promiseJobStatsInterval) {
+            return false;
+        }
+        if (!Objects.equals(this.traceFile, other.traceFile)) {
+            return false;
+        }
+        if (!Objects.equals(this.traceFormat, other.traceFormat)) {
+            return false;
+        }
+        if (this.traceAsync != other.traceAsync) {
+            return false;
+        }
+        if (this.traceBufferSize != other.traceBufferSize) {
+            return false;
+        }
+        if (!Objects.equals(this.traceOverflow, other.traceOverflow)) {
+            return false;
+        }
+        if (this.traceCheckpointInterval != other.traceCheckpointInterval) {
+            return false;
+        }
+        if (!Objects.equals(this.traceDivergence, other.traceDivergence)) {
+            return false;
+        }
+        if (this.traceSyncTimeout != other.traceSyncTimeout) {
+            return false;
+        }
+        if (this.traceInterop != other.traceInterop) {
+            return false;
+        }
+        if (this.traceMetricsInterval != other.traceMetricsInterval) {
+            return false;
+        }
+        if (this.traceRotateSize != other.traceRotateSize) {
+            return false;
+        }
+        if (this.traceRotateInterval != other.traceRotateInterval) {
+            return false;
+        }
+        if (this.traceMaxSize != other.traceMaxSize) {
+            return false;
+        }
+        if (this.traceRetain != other.traceRetain) {
+            return false;
+        }
+        if (this.recordWindow != other.recordWindow) {
+            return false;
+        }
+        if (this.recordWindowPeriod != other.recordWindowPeriod) {
+            return false;
+        }
+        if (this.replaySegment != other.replaySegment) {
+            return false;
+        }
+        if (this.replayFastForward != other.replayFastForward) {
+            return false;
+        }
+        if (this.replayWarmup != other.replayWarmup) {
+            return false;
+        }
+        if (!Objects.equals(this.replayReadyFile, other.replayReadyFile)) {
+            return false;
+        }
         return Objects.equals(this.parserOptions, other.parserOptions);
     }
 }
@@ -124,8 +124,10 @@ import com.oracle.truffle.js.runtime.objects.JSModuleLoader;
 import com.oracle.truffle.js.runtime.objects.JSModuleRecord;
 import com.oracle.truffle.js.runtime.objects.JSObject;
 import com.oracle.truffle.js.runtime.objects.JSObjectUtil;
+import com.oracle.truffle.js.runtime.objects.Null;
 import com.oracle.truffle.js.runtime.objects.ScriptOrModule;
 import com.oracle.truffle.js.runtime.objects.Undefined;
+import com.oracle.truffle.js.runtime.trace.TraceMetrics;
 import com.oracle.truffle.js.runtime.util.LocalTimeZoneHolder;
 import com.oracle.truffle.js.runtime.util.PrintWriterWrapper;
 import com.oracle.truffle.js.runtime.util.TRegexUtil;
@@ -1245,6 +1247,9 @@ public class JSRealm {
             JSObjectUtil.putDataProperty(context, graalObject, "versionJS", GRAALVM_VERSION, flags);
         }
         JSObjectUtil.putDataProperty(context, graalObject, "isGraalRuntime", JSFunction.create(this, isGraalRuntimeFunction(context)), flags);
+        if (context.getContextOptions().isPromiseJobStats() || context.getContextOptions().getPromiseJobStatsInterval() > 0) {
+            JSObjectUtil.putDataProperty(context, graalObject, "promiseJobStats", JSFunction.create(this, promiseJobStatsFunction(context)), flags);
+        }
         putGlobalProperty("Graal", graalObject);
     }
 
@@ -1264,6 +1269,48 @@ public class JSRealm {
         });
     }
 
+    /**
+     * Returns a function that returns the {@link PromiseJobsStatistics} of the current agent as an
+     * object, or undefined if they are not collected.
+     */
+    private static JSFunctionData promiseJobStatsFunction(JSContext context) {
+        return context.getOrCreateBuiltinFunctionData(BuiltinFunctionKey.PromiseJobStats, (c) -> {
+            return JSFunctionData.createCallOnly(context, Truffle.getRuntime().createCallTarget(new JavaScriptRootNode(context.getLanguage(), null, null) {
+                @Override
+                public Object execute(VirtualFrame frame) {
+                    return promiseJobStats();
+                }
+
+                @TruffleBoundary
+                private Object promiseJobStats() {
+                    JSRealm realm = context.getRealm();
+                    PromiseJobsStatistics statistics = realm.getAgent().getPromiseJobsStatistics();
+                    if (statistics == null) {
+                        return Undefined.instance;
+                    }
+                    DynamicObject result = JSUserObject.create(context, realm);
+                    putStatistics(context, result, "queueDepth", statistics.getQueueDepth());
+                    putStatistics(context, result, "drainTime", statistics.getDrainTime());
+                    putStatistics(context, result, "jobsPerDrain", statistics.getJobsPerDrain());
+                    String longestJobName = statistics.getLongestJobName();
+                    JSObjectUtil.putDataProperty(context, result, "longestJobTime", JSRuntime.longToIntOrDouble(statistics.getLongestJobTime()), JSAttributes.getDefault());
+                    JSObjectUtil.putDataProperty(context, result, "longestJob", longestJobName == null ? Null.instance : longestJobName, JSAttributes.getDefault());
+                    return result;
+                }
+            }), 0, "promiseJobStats");
+        });
+    }
+
+    private static void putStatistics(JSContext context, DynamicObject result, String name, TraceMetrics.Histogram histogram) {
+        DynamicObject object = JSUserObject.create(context, context.getRealm());
+        JSObjectUtil.putDataProperty(context, object, "count", JSRuntime.longToIntOrDouble(histogram.getCount()), JSAttributes.getDefault());
+        JSObjectUtil.putDataProperty(context, object, "sum", JSRuntime.longToIntOrDouble(histogram.getSum()), JSAttributes.getDefault());
+        JSObjectUtil.putDataProperty(context, object, "p50", JSRuntime.longToIntOrDouble(histogram.getPercentile(50)), JSAttributes.getDefault());
+        JSObjectUtil.putDataProperty(context, object, "p99", JSRuntime.longToIntOrDouble(histogram.getPercentile(99)), JSAttributes.getDefault());
+        JSObjectUtil.putDataProperty(context, object, "max", JSRuntime.longToIntOrDouble(histogram.getMax()), JSAttributes.getDefault());
+        JSObjectUtil.putDataProperty(context, result, name, object, JSAttributes.getDefault());
+    }
+
     public JSConstructor getSIMDTypeConstructor(SIMDTypeFactory<? extends SIMDType> factory) {
         return simdTypeConstructors[factory.getFactoryIndex()];
     }
@@ -1625,6 +1672,7 @@ public class JSRealm {
             try {
                 JSRealm childRealm = JavaScriptLanguage.getCurrentJSRealm();
                 childRealm.agent = this.agent;
+                childRealm.initRecordedTimeOffsetAndRandom();
                 childRealm.parentRealm = this;
 
                 if (getContext().getContextOptions().isV8RealmBuiltin()) {
@@ -1783,7 +1831,7 @@ public class JSRealm {
     }
 
     public long nanoTime(long offset) {
-        long ns = System.nanoTime() + offset;
+        long ns = systemNanoTime() + offset;
         long resolution = getContext().getTimerResolution();
         if (resolution > 0) {
             return (ns / resolution) * resolution;
@@ -1805,6 +1853,20 @@ public class JSRealm {
         return nanoTime(nanoToCurrentTimeOffset) / NANOSECONDS_PER_MILLISECOND;
     }
 
+    private long systemNanoTime() {
+        if (getContext().isRecordAndReplayNotUsed()) {
+            return System.nanoTime();
+        }
+        return recordedNanoTime();
+    }
+
+    @TruffleBoundary
+    private long recordedNanoTime() {
+        long ns = System.nanoTime();
+        RecordAndReplay recordAndReplay = agent == null ? null : agent.getRecordAndReplay();
+        return recordAndReplay == null ? ns : recordAndReplay.nanoTime(ns);
+    }
+
     public JSConsoleUtil getConsoleUtil() {
         if (consoleUtil == null) {
             CompilerDirectives.transferToInterpreterAndInvalidate();
@@ -1882,6 +1944,19 @@ public class JSRealm {
         assert newAgent != null : "Cannot set a null agent!";
         CompilerAsserts.neverPartOfCompilation("Assigning agent to context in compiled code");
         this.agent = newAgent;
+        if (newAgent.getRecordAndReplay() == null) {
+            newAgent.setRecordAndReplay(RecordAndReplay.create(newAgent, getContext()));
+        }
+        if (newAgent.getPromiseJobsStatistics() == null) {
+            newAgent.setPromiseJobsStatistics(PromiseJobsStatistics.create(newAgent, getContext()));
+        }
+        if (newAgent.getRecordAndReplay() != null) {
+            if (!newAgent.getRecordAndReplay().isWindowed()) {
+                getContext().invalidateRecordAndReplayNotUsedAssumption();
+            }
+            newAgent.getRecordAndReplay().suppressOutput(outputWriter, errorWriter);
+        }
+        initRecordedTimeOffsetAndRandom();
     }
 
     private LocalTimeZoneHolder getLocalTimeZoneHolder() {
@@ -1916,12 +1991,29 @@ public class JSRealm {
     private void initTimeOffsetAndRandom() {
         assert !getEnv().isPreInitialization();
 
-        random = new SplittableRandom();
-        nanoToZeroTimeOffset = -System.nanoTime();
-        nanoToCurrentTimeOffset = System.currentTimeMillis() * NANOSECONDS_PER_MILLISECOND + nanoToZeroTimeOffset;
+        RecordAndReplay recordAndReplay = agent == null ? null : agent.getRecordAndReplay();
+        if (recordAndReplay == null) {
+            random = new SplittableRandom();
+            nanoToZeroTimeOffset = -System.nanoTime();
+            nanoToCurrentTimeOffset = System.currentTimeMillis() * NANOSECONDS_PER_MILLISECOND + nanoToZeroTimeOffset;
+        } else {
+            random = new SplittableRandom(recordAndReplay.randomSeed(new SplittableRandom().nextLong()));
+            nanoToZeroTimeOffset = -recordAndReplay.nanoTime(System.nanoTime());
+            nanoToCurrentTimeOffset = recordAndReplay.currentTimeMillis(System.currentTimeMillis()) * NANOSECONDS_PER_MILLISECOND + nanoToZeroTimeOffset;
+        }
         lastFuzzyTime = Long.MIN_VALUE;
     }
 
+    /**
+     * Realms that are initialized before they are assigned a recording or replaying agent take
+     * their clocks and random seed from the agent's trace from then on.
+     */
+    private void initRecordedTimeOffsetAndRandom() {
+        if (random != null && agent.getRecordAndReplay() != null) {
+            initTimeOffsetAndRandom();
+        }
+    }
+
     public final SplittableRandom getRandom() {
         return random;
     }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime;
+
+import java.io.PrintStream;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.object.DynamicObject;
+import com.oracle.truffle.js.runtime.builtins.JSFunction;
+import com.oracle.truffle.js.runtime.objects.PromiseReactionJobRecord;
+import com.oracle.truffle.js.runtime.trace.TraceMetrics.Histogram;
+
+/**
+ * Statistics of the promise job queue of an agent, collected by
+ * {@link JSAgent#processAllPromises()}: the number of queued jobs when a drain starts, the time
+ * and number of jobs per drain, and the longest running job. Updated by the agent thread and may
+ * be read from any thread.
+ */
+public final class PromiseJobsStatistics {
+
+    private final int agent;
+    private final Histogram queueDepth = new Histogram();
+    private final Histogram drainTime = new Histogram();
+    private final Histogram jobsPerDrain = new Histogram();
+    private Timer dumpTimer;
+
+    /* Longest job so far. The name of the job is only looked up when it is requested. */
+    private long longestJobTime;
+    private Object longestJob;
+    private String longestJobName;
+
+    /* Only accessed by the agent thread. */
+    private long finishedJobs;
+
+    private PromiseJobsStatistics(int agent) {
+        this.agent = agent;
+    }
+
+    /**
+     * Returns the statistics for the given agent, or {@code null} if they are not enabled.
+     */
+    public static PromiseJobsStatistics create(JSAgent agent, JSContext context) {
+        JSContextOptions options = context.getContextOptions();
+        long interval = options.getPromiseJobStatsInterval();
+        if (!options.isPromiseJobStats() && interval <= 0) {
+            return null;
+        }
+        PromiseJobsStatistics statistics = new PromiseJobsStatistics(agent.getSignifier());
+        if (interval > 0) {
+            statistics.dumpTimer = new Timer("PromiseJobs-Statistics", true);
+            statistics.dumpTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    statistics.dump(System.err);
+                }
+            }, interval, interval);
+        }
+        return statistics;
+    }
+
+    /**
+     * Records the number of jobs, including jobs held back by the replay, when a drain starts.
+     */
+    public void drainStarted(int queued) {
+        queueDepth.record(queued);
+    }
+
+    @TruffleBoundary
+    public void jobFinished(Object job, long jobStart) {
+        finishedJobs++;
+        long time = System.nanoTime() - jobStart;
+        if (time > longestJobTime) {
+            setLongestJob(job, time);
+        }
+    }
+
+    private synchronized void setLongestJob(Object job, long time) {
+        longestJobTime = time;
+        longestJob = job;
+        longestJobName = null;
+    }
+
+    /**
+     * Returns the number of jobs run so far.
+     */
+    public long getFinishedJobs() {
+        return finishedJobs;
+    }
+
+    /**
+     * Records a finished drain. Drains can be nested, so the caller keeps the state of its drain.
+     *
+     * @param drainStart the {@link System#nanoTime()} when the drain started
+     * @param finishedJobsAtStart the {@link #getFinishedJobs() finished jobs} when the drain
+     *            started
+     */
+    public void drainFinished(long drainStart, long finishedJobsAtStart) {
+        drainTime.record(System.nanoTime() - drainStart);
+        jobsPerDrain.record(finishedJobs - finishedJobsAtStart);
+    }
+
+    /**
+     * Returns the number of jobs that were queued when a drain of the queue started.
+     */
+    public Histogram getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the time it took to drain the queue, in nanoseconds.
+     */
+    public Histogram getDrainTime() {
+        return drainTime;
+    }
+
+    /**
+     * Returns the number of jobs run per drain, including jobs enqueued during the drain.
+     */
+    public Histogram getJobsPerDrain() {
+        return jobsPerDrain;
+    }
+
+    public synchronized long getLongestJobTime() {
+        return longestJobTime;
+    }
+
+    /**
+     * Returns the name of the function run by the longest job, or {@code null} if no job has run.
+     * The job is kept alive until a longer one replaces it.
+     */
+    @TruffleBoundary
+    public synchronized String getLongestJobName() {
+        if (longestJobName == null && longestJob != null) {
+            longestJobName = getJobName(longestJob);
+        }
+        return longestJobName;
+    }
+
+    private static String getJobName(Object job) {
+        Object function = job;
+        if (job instanceof PromiseReactionJobRecord) {
+            function = ((PromiseReactionJobRecord) job).getReaction().getHandler();
+            if (!JSFunction.isJSFunction(function)) {
+                return "PromiseReactionJob";
+            }
+        }
+        if (JSFunction.isJSFunction(function)) {
+            String name = JSFunction.getName((DynamicObject) function);
+            if (name == null || name.isEmpty()) {
+                RootCallTarget callTarget = (RootCallTarget) JSFunction.getCallTarget((DynamicObject) function);
+                name = callTarget.getRootNode().getName();
+            }
+            return name == null || name.isEmpty() ? "<anonymous>" : name;
+        }
+        return String.valueOf(job);
+    }
+
+    public void dump(PrintStream out) {
+        out.println("Promise jobs of agent " + agent + ":");
+        out.println("  queue depth: " + queueDepth);
+        out.println("  drain time (ns): " + drainTime);
+        out.println("  jobs per drain: " + jobsPerDrain);
+        out.println("  longest job (ns): " + getLongestJobTime() + " " + getLongestJobName());
+    }
+
+    public void close() {
+        if (dumpTimer != null) {
+            dumpTimer.cancel();
+            dumpTimer = null;
+            dump(System.err);
+        }
+    }
+}
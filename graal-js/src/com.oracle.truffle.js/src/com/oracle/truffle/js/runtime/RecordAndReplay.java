@@ -1,118 +1,908 @@
 package com.oracle.truffle.js.runtime;
 
-import com.oracle.truffle.api.object.DynamicObject;
-import com.oracle.truffle.api.object.Property;
-import com.oracle.truffle.js.nodes.promise.PromiseReactionJobNode;
-import com.oracle.truffle.js.runtime.objects.JSProperty;
+import com.oracle.truffle.api.CompilerAsserts;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleException;
+import com.oracle.truffle.api.TruffleLogger;
+import com.oracle.truffle.js.lang.JavaScriptLanguage;
+import com.oracle.truffle.js.runtime.objects.Null;
+import com.oracle.truffle.js.runtime.objects.PromiseCapabilityRecord;
 import com.oracle.truffle.js.runtime.objects.PromiseReactionRecord;
+import com.oracle.truffle.js.runtime.objects.Undefined;
+import com.oracle.truffle.js.runtime.trace.AsyncTraceWriter;
+import com.oracle.truffle.js.runtime.trace.DivergenceDetector;
+import com.oracle.truffle.js.runtime.trace.ReplayScheduler;
+import com.oracle.truffle.js.runtime.trace.SyncOrder;
+import com.oracle.truffle.js.runtime.trace.SyncPoint;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
+import com.oracle.truffle.js.runtime.trace.TraceManifest;
+import com.oracle.truffle.js.runtime.trace.TraceMetrics;
+import com.oracle.truffle.js.runtime.trace.TraceReader;
+import com.oracle.truffle.js.runtime.trace.TraceRotation;
+import com.oracle.truffle.js.runtime.trace.TraceValue;
+import com.oracle.truffle.js.runtime.trace.TraceWriter;
+import com.oracle.truffle.js.runtime.util.PrintWriterWrapper;
 
-import java.io.*;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
 
-public class RecordAndReplay {
-    private static RecordAndReplay INSTANCE;
-    private static final boolean TRACING = System.getProperty("tracing","false").compareTo("true") == 0;
-    private static final boolean REPLAY = System.getProperty("replay","false").compareTo("true") == 0;
-    private static final String FILE = System.getProperty("file");
+/**
+ * Records the order in which an agent runs its promise jobs, or replays a previously recorded
+ * order. Every {@link JSAgent} has its own instance and trace file, see {@link TraceManifest}.
+ * Trace files are opened when the first job is enqueued.
+ *
+ * The random seeds and clock readings of the realms of the agent are recorded in a separate
+ * {@link TraceFormat#INPUTS_SUFFIX inputs channel}. When the replayed inputs are exhausted or no
+ * longer match the program, the live values are used again.
+ *
+ * Job traces contain checkpoints that let the replayer detect the first window of jobs in which
+ * the run diverges from the trace, see {@link DivergenceDetector}.
+ *
+ * In production, jobs can be recorded in windows of a few seconds only, either on
+ * {@link #recordWindow(long) request} or periodically. Every window is written to a
+ * {@link TraceFormat#getSegmentFile(String, int) segment} of its own that can be replayed by
+ * itself; inputs are not recorded in this mode. While no window is open, the agent enqueues its
+ * jobs as if recording was disabled.
+ *
+ * Agents that share memory also record the order in which they acquire the locks of
+ * {@code Atomics} operations and waiter lists in a {@link TraceFormat#SYNC_SUFFIX sync channel},
+ * which replaying agents follow, see {@link SyncOrder}. Like inputs, lock acquisitions are only
+ * recorded for whole runs.
+ *
+ * With {@code js.trace-interop}, the results of calls to host functions are recorded in an
+ * {@link TraceFormat#INTEROP_SUFFIX interop channel}. A replay substitutes the recorded results
+ * for the calls, so scripts can be replayed without the services the host calls into. Results that
+ * cannot be serialized, such as host objects, are not substituted; these calls are still made.
+ *
+ * To reach a late point of a long trace quickly, a replay can fast-forward over its first
+ * {@code js.replay-fast-forward} jobs: the console output of the agent is discarded and only hashed
+ * until then, see {@link PrintWriterWrapper#suppress()}. When the output resumes, the number of
+ * discarded characters and their hashes are printed to the error output of the first realm.
+ *
+ * A {@code js.replay-warmup} replay runs a recorded production trace in a fresh context only to
+ * warm up the engine before it serves requests. Its side effects are confined to the context:
+ * host calls are never made but replaced with their recorded results, or undefined where no result
+ * was recorded, and console output is discarded. Other effects, such as those of native functions
+ * of an embedder, are not intercepted. Divergence from the trace is tolerated. Once the agent has
+ * replayed its whole trace, it is {@link #isWarmedUp() warmed up} and appends its signifier to the
+ * {@code js.replay-ready-file}.
+ *
+ * The recorder keeps {@link TraceMetrics} about its overhead and the replayed order, which can be
+ * dumped periodically with {@code js.trace-metrics-interval}.
+ *
+ * Long-running processes can bound the disk space of their trace with {@link TraceRotation}: the
+ * trace is split into segments by size or age, and only the most recent segments are kept.
+ * Recording stops when the trace cannot be written, for example because the disk is full.
+ *
+ * The agent thread writes events while holding the lock of the recorder, so that {@link #close()},
+ * which may run in a shutdown hook, never closes a writer in the middle of an event. Once closed,
+ * the recorder neither writes nor reads traces anymore.
+ *
+ * Problems with the trace files and divergences are reported to the log of the language, which does
+ * not depend on the thread and is not suppressed during a fast-forward.
+ */
+public final class RecordAndReplay {
 
-    public static synchronized RecordAndReplay getInstance(){
-        if(INSTANCE == null) {
-            INSTANCE = new RecordAndReplay();
+    private static final TruffleLogger LOG = TruffleLogger.getLogger(JavaScriptLanguage.ID, RecordAndReplay.class);
+
+    private final int signifier;
+    private final String traceFile;
+    private final TraceFormat.Encoding encoding;
+    private final boolean async;
+    private final int bufferSize;
+    private final AsyncTraceWriter.OverflowPolicy overflowPolicy;
+    private final DivergenceDetector.Policy divergencePolicy;
+    private final int checkpointInterval;
+    private final JSContext context;
+    private final long windowMillis;
+    private final int replaySegment;
+    private final TraceRotation rotation;
+    private DivergenceDetector checkpoints;
+
+    /* Read without the lock on the fast path, only written while holding it. */
+    private volatile boolean record;
+    private boolean replay;
+    /* Set by close(), after which no writer or reader is opened again. */
+    private boolean closed;
+
+    private String recordFile;
+    private TraceWriter traceWriter;
+    private TraceWriter inputWriter;
+    private ReplayScheduler<Object> replayScheduler;
+    private DivergenceDetector divergenceDetector;
+    private boolean divergenceReported;
+    private TraceReader inputReader;
+    private final long syncTimeout;
+    private SyncOrder syncOrder;
+    private boolean syncOrderOpened;
+    private boolean syncDivergenceReported;
+    private boolean replayInputs;
+    private final boolean traceInterop;
+    private boolean replayInterop;
+    private TraceWriter interopWriter;
+    private TraceReader interopReader;
+    private final boolean warmup;
+    private final String readyFile;
+    private volatile boolean warmedUp;
+    private final long fastForwardJobs;
+    private long replayedJobs;
+    private List<PrintWriterWrapper> suppressedOutput;
+    private final TraceMetrics metrics = new TraceMetrics();
+    private final long metricsInterval;
+    private Timer metricsTimer;
+    /* Totals of the writers that have been closed. */
+    private long closedBytes;
+    private long closedDroppedEvents;
+    private long closedHighWaterMark;
+    private long nanoTimeShift;
+    private Thread shutdownHook;
+
+    /* Requested end of the current recording window, see System.nanoTime(). */
+    private volatile long windowDeadline;
+    private volatile boolean windowRequested;
+    /* Only changed by the agent thread while recording. */
+    private boolean segmentOpen;
+    private long segmentFirstJob;
+    private String segmentFile;
+    private int segment;
+    private Timer windowTimer;
+
+    private RecordAndReplay(int signifier, JSContext context) {
+        JSContextOptions options = context.getContextOptions();
+        this.signifier = signifier;
+        this.context = context;
+        this.record = options.isRecord();
+        this.replay = options.isReplay();
+        this.windowMillis = record ? options.getRecordWindow() : 0;
+        this.replaySegment = replay ? options.getReplaySegment() : -1;
+        this.replayInputs = replay && replaySegment < 0;
+        this.traceInterop = options.isTraceInterop();
+        this.traceFile = options.getTraceFile();
+        this.encoding = options.getTraceFormat();
+        this.async = options.isTraceAsync();
+        this.bufferSize = options.getTraceBufferSize();
+        this.overflowPolicy = options.getTraceOverflow();
+        this.warmup = replay && options.isReplayWarmup();
+        this.replayInterop = (traceInterop || warmup) && replayInputs;
+        this.readyFile = warmup ? options.getReplayReadyFile() : "";
+        this.fastForwardJobs = !replay ? 0 : warmup ? Long.MAX_VALUE : options.getReplayFastForward();
+        this.divergencePolicy = warmup ? DivergenceDetector.Policy.RELAXED : options.getTraceDivergence();
+        this.syncTimeout = options.getTraceSyncTimeout();
+        this.checkpointInterval = options.getTraceCheckpointInterval();
+        this.checkpoints = new DivergenceDetector(checkpointInterval);
+        this.rotation = new TraceRotation(options.getTraceRotateSize(), options.getTraceRotateInterval(), options.getTraceMaxSize(), options.getTraceRetain());
+        this.metricsInterval = options.getTraceMetricsInterval();
+        if (metricsInterval > 0) {
+            metricsTimer = new Timer("RecordAndReplay-Metrics", true);
+            metricsTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    dumpMetrics();
+                }
+            }, metricsInterval, metricsInterval);
+        }
+        long period = options.getRecordWindowPeriod();
+        if (windowMillis > 0 && period > 0) {
+            windowTimer = new Timer("RecordAndReplay-Window", true);
+            windowTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    recordWindow(windowMillis);
+                }
+            }, 0, period);
+        }
+    }
+
+    /**
+     * Creates the recorder of an agent, or returns {@code null} if neither recording nor replay is
+     * enabled.
+     */
+    public static RecordAndReplay create(JSAgent agent, JSContext context) {
+        CompilerAsserts.neverPartOfCompilation();
+        JSContextOptions options = context.getContextOptions();
+        if (!options.isRecord() && !options.isReplay()) {
+            return null;
+        }
+        return new RecordAndReplay(agent.getSignifier(), context);
+    }
+
+    /**
+     * Returns whether jobs are only recorded in windows.
+     */
+    public boolean isWindowed() {
+        return windowMillis > 0;
+    }
+
+    /**
+     * Returns whether the job trace is written in segments.
+     */
+    private boolean isSegmented() {
+        return isWindowed() || rotation.isEnabled();
+    }
+
+    /**
+     * Returns whether enqueued jobs need to be passed to the recorder.
+     */
+    public boolean isActive() {
+        return replay || (record && (segmentOpen || !isWindowed() || windowRequested));
+    }
+
+    /**
+     * Requests a recording window of the given length, or extends the current one. May be called
+     * from any thread; the window starts with the next job the agent enqueues.
+     */
+    public synchronized void recordWindow(long millis) {
+        if (!record || !isWindowed()) {
+            return;
+        }
+        windowDeadline = System.nanoTime() + millis * 1_000_000L;
+        if (!windowRequested) {
+            windowRequested = true;
+            context.recordingWindowOpened();
+        }
+    }
+
+    /**
+     * Closes the current segment once its window ends or it is due for rotation, and opens the next
+     * one, before a job is recorded. Returns whether the job is part of a segment.
+     */
+    private boolean updateSegment(long ordinal, int queued) {
+        long now = System.nanoTime();
+        if (segmentOpen && ((isWindowed() && now - windowDeadline >= 0) || rotation.isDue(traceWriter.getSize() + traceWriter.getBufferedSize(), now))) {
+            closeSegment(now);
+        }
+        if (!segmentOpen && (!isWindowed() || windowRequested)) {
+            openSegment(ordinal, queued, now);
+        }
+        return segmentOpen;
+    }
+
+    private void openSegment(long ordinal, int queued, long now) {
+        try {
+            segmentFile = TraceFormat.getSegmentFile(getRecordFile(), segment++);
+            traceWriter = openWriter(segmentFile, overflowPolicy);
+            traceWriter.writeSegment(ordinal);
+            traceWriter.writeCheckpoint(TraceFormat.checkpoint(TraceFormat.INITIAL_JOB_HASH, queued));
+        } catch (IOException e) {
+            recordingFailed(e);
+            return;
+        }
+        checkpoints = new DivergenceDetector(checkpointInterval);
+        rotation.segmentOpened(now);
+        segmentFirstJob = ordinal;
+        segmentOpen = true;
+    }
+
+    private synchronized void closeSegment(long now) {
+        segmentOpen = false;
+        closeWriter(traceWriter);
+        traceWriter = null;
+        rotation.segmentClosed(segmentFile);
+        if (windowRequested && now - windowDeadline >= 0) {
+            windowRequested = false;
+            context.recordingWindowClosed();
         }
-        return INSTANCE;
     }
 
-    private List<Integer> orderList = new ArrayList<Integer>();
-    private PrintStream serializerStream;
+    private void recordingFailed(IOException e) {
+        LOG.log(Level.WARNING, "Recording of agent " + signifier + " stopped", e);
+        close();
+    }
 
-    private RecordAndReplay() {
-        //TRACING
-        if(TRACING) {
-            String file = FILE;
-            if (file == null) {
-                file = "serialized.tracing";
+    private TraceWriter getTraceWriter() {
+        assert Thread.holdsLock(this);
+        if (traceWriter == null && !closed) {
+            try {
+                traceWriter = openWriter(getRecordFile(), overflowPolicy);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Recording of agent " + signifier + " stopped", e);
+                record = false;
             }
+        }
+        return traceWriter;
+    }
 
+    private TraceWriter getInputWriter() {
+        assert Thread.holdsLock(this);
+        if (inputWriter == null && !closed) {
             try {
-                serializerStream = new PrintStream(new FileOutputStream(file));
+                // Losing an input would make the whole trace unusable, so inputs are never dropped.
+                AsyncTraceWriter.OverflowPolicy policy = overflowPolicy == AsyncTraceWriter.OverflowPolicy.DROP ? AsyncTraceWriter.OverflowPolicy.BLOCK : overflowPolicy;
+                inputWriter = openWriter(getRecordFile() + TraceFormat.INPUTS_SUFFIX, policy);
             } catch (IOException e) {
-                e.printStackTrace();
+                LOG.log(Level.WARNING, "Recording of agent " + signifier + " stopped", e);
+                record = false;
             }
         }
-        //REPLAY
-        if(REPLAY) {
-            String file = FILE;
-            if (file == null) {
-                file = "serialized.tracing";
+        return inputWriter;
+    }
+
+    private String getRecordFile() throws IOException {
+        if (recordFile == null) {
+            recordFile = TraceManifest.register(traceFile, signifier);
+        }
+        return recordFile;
+    }
+
+    private TraceWriter openWriter(String file, AsyncTraceWriter.OverflowPolicy policy) throws IOException {
+        TraceWriter writer = TraceWriter.create(file, encoding, signifier);
+        writer.setFlushLatency(metrics.getFlushLatency());
+        if (async) {
+            writer = new AsyncTraceWriter(writer, bufferSize, policy);
+        }
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(this::close, "RecordAndReplay-Flush");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        return writer;
+    }
+
+    /**
+     * Records an enqueued job.
+     *
+     * @param ordinal number of jobs the agent enqueued before this one
+     * @param queued number of pending jobs, not including this one
+     */
+    public void serialize(int jobId, long ordinal, int queued) {
+        if (record) {
+            serializeJob(jobId, ordinal, queued);
+        }
+    }
+
+    private synchronized void serializeJob(int jobId, long ordinal, int queued) {
+        if (record) {
+            if (isSegmented() && !updateSegment(ordinal, queued)) {
+                return;
+            }
+            TraceWriter writer = getTraceWriter();
+            if (writer != null) {
+                try {
+                    writer.writeJob(jobId);
+                    metrics.eventRecorded();
+                    // Only the jobs of the current segment are pending in a replay of the segment.
+                    int pending = (int) Math.min(queued + 1L, ordinal - segmentFirstJob + 1);
+                    if (checkpoints.recordJob(jobId, pending)) {
+                        writer.writeCheckpoint(checkpoints.getCheckpoint());
+                        metrics.eventRecorded();
+                    }
+                } catch (IOException e) {
+                    recordingFailed(e);
+                }
             }
+        }
+    }
 
+    /**
+     * Returns the metrics of the recorder, updated with the current state of its trace writers.
+     */
+    public synchronized TraceMetrics getMetrics() {
+        long bytes = closedBytes;
+        long dropped = closedDroppedEvents;
+        long highWaterMark = closedHighWaterMark;
+        for (TraceWriter writer : new TraceWriter[]{traceWriter, inputWriter, interopWriter}) {
+            if (writer != null) {
+                bytes += writer.getSize();
+                if (writer instanceof AsyncTraceWriter) {
+                    dropped += ((AsyncTraceWriter) writer).getDroppedEvents();
+                    highWaterMark = Math.max(highWaterMark, ((AsyncTraceWriter) writer).getHighWaterMark());
+                }
+            }
+        }
+        if (syncOrder != null) {
+            bytes += syncOrder.getSize();
+        }
+        metrics.setBytesWritten(bytes);
+        metrics.setDroppedEvents(dropped);
+        metrics.setQueueHighWaterMark(highWaterMark);
+        return metrics;
+    }
+
+    private void dumpMetrics() {
+        getMetrics().dump(System.err, "Record and replay metrics of agent " + signifier + ":");
+    }
+
+    private void closeWriter(TraceWriter writer) {
+        if (writer != null) {
+            close(writer);
+            closedBytes += writer.getSize();
+            if (writer instanceof AsyncTraceWriter) {
+                closedDroppedEvents += ((AsyncTraceWriter) writer).getDroppedEvents();
+                closedHighWaterMark = Math.max(closedHighWaterMark, ((AsyncTraceWriter) writer).getHighWaterMark());
+            }
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (windowTimer != null) {
+            windowTimer.cancel();
+            windowTimer = null;
+        }
+        boolean dumpMetrics = metricsTimer != null;
+        if (dumpMetrics) {
+            metricsTimer.cancel();
+            metricsTimer = null;
+        }
+        if (windowRequested) {
+            windowRequested = false;
+            context.recordingWindowClosed();
+        }
+        segmentOpen = false;
+        record = false;
+        closeWriter(traceWriter);
+        traceWriter = null;
+        closeWriter(inputWriter);
+        inputWriter = null;
+        close(inputReader);
+        inputReader = null;
+        replayInputs = false;
+        if (syncOrder != null) {
+            close(syncOrder);
+            closedBytes += syncOrder.getSize();
+            syncOrder = null;
+        }
+        syncOrderOpened = true;
+        closeWriter(interopWriter);
+        interopWriter = null;
+        close(interopReader);
+        interopReader = null;
+        replayInterop = false;
+        if (suppressedOutput != null) {
+            resumeOutput();
+        }
+        if (dumpMetrics) {
+            dumpMetrics();
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
             try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-                orderList = reader.lines()
-                        .mapToInt(x -> Integer.parseInt(x))
-                        .boxed()
-                        .collect(Collectors.toList());
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // shutdown in progress
+            }
+            shutdownHook = null;
+        }
+    }
 
+    private void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                LOG.log(Level.WARNING, "Could not close a trace of agent " + signifier, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the seed for the random number generator of a realm.
+     */
+    public long randomSeed(long seed) {
+        return input(TraceFormat.EVENT_SEED, seed);
+    }
+
+    /**
+     * Returns the reading of {@link System#nanoTime()} the program observes.
+     */
+    public long nanoTime(long nanoTime) {
+        if (replayInputs) {
+            long replayed = input(TraceFormat.EVENT_NANO_TIME, nanoTime);
+            if (replayInputs) {
+                // Once replay ends, time continues from the last replayed reading.
+                nanoTimeShift = replayed - nanoTime;
+                return replayed;
             }
         }
+        return input(TraceFormat.EVENT_NANO_TIME, nanoTime + nanoTimeShift);
     }
 
+    /**
+     * Returns the reading of {@link System#currentTimeMillis()} the program observes.
+     */
+    public long currentTimeMillis(long millis) {
+        return input(TraceFormat.EVENT_WALL_CLOCK, millis);
+    }
 
-    public void serialize(String text) {
-        if(TRACING) {
-            serializerStream.println(text);
+    private synchronized long input(int tag, long liveValue) {
+        if (isSegmented()) {
+            return liveValue;
+        }
+        long value = liveValue;
+        if (replayInputs) {
+            TraceReader reader = getInputReader();
+            try {
+                if (reader != null && reader.hasNext()) {
+                    value = reader.nextInput(tag);
+                } else {
+                    replayInputs = false;
+                }
+            } catch (IllegalStateException e) {
+                LOG.warning("Replayed inputs of agent " + signifier + " diverged from the program: " + e.getMessage());
+                replayInputs = false;
+            }
+            if (!replayInputs) {
+                return liveValue;
+            }
+        }
+        if (record) {
+            TraceWriter writer = getInputWriter();
+            if (writer != null) {
+                try {
+                    writer.writeInput(tag, value);
+                    metrics.eventRecorded();
+                } catch (IOException e) {
+                    recordingFailed(e);
+                }
+            }
         }
+        return value;
     }
 
-    public void serialize(DynamicObject job) {
-        if(TRACING) {
-            serializerStream.println(getIdentifier(job));
+    private TraceReader getInputReader() {
+        if (inputReader == null) {
+            try {
+                inputReader = TraceReader.open(getReplayFile() + TraceFormat.INPUTS_SUFFIX);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Cannot replay the inputs of agent " + signifier, e);
+                replayInputs = false;
+            }
         }
+        return inputReader;
     }
 
-    public int getIdentifier(DynamicObject job) {
-        Property prop = job.getShape().getProperty(PromiseReactionJobNode.REACTION_KEY);
-        PromiseReactionRecord prr = (PromiseReactionRecord) JSProperty.getValue(prop,job, job,false);
-        return prr.getCapability().getId();
+    private synchronized SyncOrder getSyncOrder() {
+        if (!syncOrderOpened) {
+            syncOrderOpened = true;
+            try {
+                if (replay && replaySegment < 0) {
+                    syncOrder = new SyncOrder(TraceReader.open(getReplayFile() + TraceFormat.SYNC_SUFFIX), syncTimeout);
+                } else if (record && !isSegmented()) {
+                    // Like inputs, lock acquisitions are never dropped.
+                    AsyncTraceWriter.OverflowPolicy policy = overflowPolicy == AsyncTraceWriter.OverflowPolicy.DROP ? AsyncTraceWriter.OverflowPolicy.BLOCK : overflowPolicy;
+                    syncOrder = new SyncOrder(openWriter(getRecordFile() + TraceFormat.SYNC_SUFFIX, policy));
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Cannot record or replay the lock order of agent " + signifier, e);
+            }
+        }
+        return syncOrder;
     }
 
-    public boolean reorganizeJobQueue(Deque<DynamicObject> jobQueue) {
-        if (REPLAY && orderList.size() > 0) {
+    /**
+     * Called before the agent acquires a lock shared with other agents. When replaying, waits until
+     * it is the turn of the agent according to the trace.
+     */
+    public void awaitSyncTurn(SyncPoint point) {
+        SyncOrder order = getSyncOrder();
+        if (order != null && !order.awaitTurn(point) && !syncDivergenceReported) {
+            syncDivergenceReported = true;
+            String message = "Replay of agent " + signifier + " diverged from its lock order: " + order.getDivergence();
+            if (divergencePolicy == DivergenceDetector.Policy.ABORT) {
+                throw Errors.createError(message);
+            }
+            LOG.warning(message);
+        }
+    }
 
-            int nextElemId = orderList.get(0);
-            if (getIdentifier(jobQueue.getLast()) != nextElemId) {
-                if(jobQueue.size() <= 1) {
-                    return false;
-                } else {
-                    if(!reOrder(jobQueue, nextElemId)){
-                        return false;
-                    }
+    /**
+     * Called after the agent acquired a lock shared with other agents.
+     */
+    public synchronized void syncAcquired(SyncPoint point) {
+        SyncOrder order = getSyncOrder();
+        if (order != null) {
+            try {
+                order.acquired(point);
+                if (record) {
+                    metrics.eventRecorded();
                 }
+            } catch (IOException e) {
+                recordingFailed(e);
             }
-            orderList.remove(0);
         }
-        return true;
     }
 
-    private boolean reOrder(Deque<DynamicObject> jobQueue, int searchId) {
-        DynamicObject found = null;
-        for(DynamicObject d : jobQueue){
-            if(getIdentifier(d) == searchId) {
-                found = d;
-                break;
+    /**
+     * Returns the recorder of the current agent if it records or replays the results of host calls,
+     * or {@code null}.
+     */
+    @TruffleBoundary
+    public static RecordAndReplay getInteropRecorder(JSContext context) {
+        RecordAndReplay recordAndReplay = context.getRealm().getAgent().getRecordAndReplay();
+        if (recordAndReplay != null && (recordAndReplay.warmup || recordAndReplay.replayInterop || (recordAndReplay.traceInterop && recordAndReplay.record && !recordAndReplay.isSegmented()))) {
+            return recordAndReplay;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the recorded result of the next host call, or {@code null} if the call has to be made.
+     * Errors thrown by the recorded call are rethrown with their message. A warm-up replay never
+     * makes host calls; calls without a recorded result return undefined.
+     */
+    @TruffleBoundary
+    public synchronized Object replayInteropResult() {
+        Object result = readInteropResult();
+        if (result == null && warmup) {
+            return Undefined.instance;
+        }
+        return result;
+    }
+
+    private Object readInteropResult() {
+        if (!replayInterop) {
+            return null;
+        }
+        if (interopReader == null) {
+            try {
+                interopReader = TraceReader.open(getReplayFile() + TraceFormat.INTEROP_SUFFIX);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Cannot replay the host call results of agent " + signifier, e);
+                replayInterop = false;
+                return null;
+            }
+        }
+        TraceValue value = null;
+        try {
+            if (interopReader.peekEvent() == TraceFormat.EVENT_VALUE) {
+                value = interopReader.nextValue();
             }
+        } catch (IllegalStateException e) {
+            LOG.warning("Replayed host call results of agent " + signifier + " diverged from the program: " + e.getMessage());
+        }
+        if (value == null) {
+            replayInterop = false;
+            return null;
+        }
+        switch (value.getType()) {
+            case TraceFormat.VALUE_UNDEFINED:
+                return Undefined.instance;
+            case TraceFormat.VALUE_NULL:
+                return Null.instance;
+            case TraceFormat.VALUE_BOOLEAN:
+                return value.getBits() != 0;
+            case TraceFormat.VALUE_INT:
+                return (int) value.getBits();
+            case TraceFormat.VALUE_LONG:
+                return value.getBits();
+            case TraceFormat.VALUE_DOUBLE:
+                return value.getDouble();
+            case TraceFormat.VALUE_STRING:
+                return value.getString();
+            case TraceFormat.VALUE_BIGINT:
+                return BigInt.valueOf(value.getString());
+            case TraceFormat.VALUE_ERROR:
+                throw Errors.createError(value.getString());
+            default:
+                return null;
         }
-        if(found != null && jobQueue.remove(found)){
-            jobQueue.addLast(found);
-            return true;
+    }
+
+    /**
+     * Records the result of a host call.
+     */
+    @TruffleBoundary
+    public void recordInteropResult(Object result) {
+        TraceValue value;
+        if (result == Undefined.instance) {
+            value = TraceValue.of(TraceFormat.VALUE_UNDEFINED);
+        } else if (result == Null.instance) {
+            value = TraceValue.of(TraceFormat.VALUE_NULL);
+        } else if (result instanceof Boolean) {
+            value = TraceValue.of(TraceFormat.VALUE_BOOLEAN, (Boolean) result ? 1 : 0);
+        } else if (result instanceof Integer) {
+            value = TraceValue.of(TraceFormat.VALUE_INT, (Integer) result);
+        } else if (result instanceof Long) {
+            value = TraceValue.of(TraceFormat.VALUE_LONG, (Long) result);
+        } else if (result instanceof Double) {
+            value = TraceValue.ofDouble((Double) result);
+        } else if (result instanceof String) {
+            value = TraceValue.of(TraceFormat.VALUE_STRING, (String) result);
+        } else if (result instanceof BigInt) {
+            value = TraceValue.of(TraceFormat.VALUE_BIGINT, result.toString());
         } else {
+            value = TraceValue.of(TraceFormat.VALUE_OBJECT);
+        }
+        writeInteropValue(value);
+    }
+
+    /**
+     * Records an error thrown by a host call. Only guest language errors are recorded, others end
+     * the run anyway.
+     */
+    @TruffleBoundary
+    public void recordInteropError(RuntimeException error) {
+        if (error instanceof TruffleException) {
+            String message = error.getMessage();
+            writeInteropValue(TraceValue.of(TraceFormat.VALUE_ERROR, message == null ? "" : message));
+        }
+    }
+
+    private synchronized void writeInteropValue(TraceValue value) {
+        if (!record) {
+            return;
+        }
+        if (interopWriter == null) {
+            try {
+                // Like inputs, host call results are never dropped.
+                AsyncTraceWriter.OverflowPolicy policy = overflowPolicy == AsyncTraceWriter.OverflowPolicy.DROP ? AsyncTraceWriter.OverflowPolicy.BLOCK : overflowPolicy;
+                interopWriter = openWriter(getRecordFile() + TraceFormat.INTEROP_SUFFIX, policy);
+            } catch (IOException e) {
+                recordingFailed(e);
+                return;
+            }
+        }
+        try {
+            interopWriter.writeValue(value);
+            metrics.eventRecorded();
+        } catch (IOException e) {
+            recordingFailed(e);
+        }
+    }
+
+    /**
+     * Returns the id of a promise reaction job, derived from the capability of its reaction. Jobs
+     * of other kinds are numbered by the agent, see {@link JSAgent#enqueueRecordedPromiseJob}.
+     */
+    public static int getJobId(PromiseReactionRecord reaction) {
+        PromiseCapabilityRecord capability = reaction.getCapability();
+        return TraceFormat.jobId(TraceFormat.JOB_REACTION, capability == null ? 0 : capability.getId());
+    }
+
+    public boolean isReplay() {
+        return replay;
+    }
+
+    private String getReplayFile() throws IOException {
+        String file = TraceManifest.lookup(traceFile, signifier);
+        return replaySegment < 0 ? file : TraceFormat.getSegmentFile(file, replaySegment);
+    }
+
+    /**
+     * Adds a job to the set of jobs waiting for their turn in the replayed order. Returns
+     * {@code false} if the job is not subject to replay and must be queued normally, for example
+     * because it was enqueued before the replayed segment starts.
+     *
+     * @param ordinal number of jobs the agent enqueued before this one
+     * @param queued number of pending jobs, not including this one
+     */
+    public boolean addReplayJob(Object job, int jobId, long ordinal, int queued) {
+        if (replayScheduler == null) {
+            if (!replay) {
+                return false;
+            }
+            try {
+                divergenceDetector = new DivergenceDetector(0);
+                replayScheduler = new ReplayScheduler<>(TraceReader.open(getReplayFile()), divergenceDetector);
+                if (metricsInterval > 0) {
+                    replayScheduler.setReorderDistance(metrics.getReorderDistance());
+                }
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Cannot replay agent " + signifier + ", its jobs run in their live order", e);
+                replay = false;
+                if (suppressedOutput != null) {
+                    resumeOutput();
+                }
+                return false;
+            }
+        }
+        long firstJob = replayScheduler.getFirstJob();
+        if (ordinal < firstJob) {
             return false;
         }
+        if (ordinal == firstJob && replaySegment >= 0) {
+            divergenceDetector.startSegment(queued);
+        }
+        replayScheduler.add(jobId, job);
+        return true;
+    }
+
+    /**
+     * Returns the number of jobs waiting for their turn in the replayed order.
+     */
+    public int getPendingReplayJobs() {
+        return replayScheduler == null ? 0 : replayScheduler.size();
+    }
+
+    /**
+     * Returns the job to run next according to the replayed trace, or {@code null} if there is no
+     * pending job. Once the run has diverged from the trace, pending jobs that are not found in the
+     * trace are run in the order they were enqueued.
+     */
+    public Object nextReplayJob() {
+        if (replayScheduler == null) {
+            return null;
+        }
+        Object job = replayScheduler.poll();
+        if (job == null && !replayScheduler.isEmpty()) {
+            divergenceDetector.stalled(replayScheduler.getExpectedId(), replayScheduler.size());
+        }
+        if (job != null) {
+            // the output of the first fastForwardJobs jobs is discarded, the next job prints again
+            if (suppressedOutput != null && replayedJobs >= fastForwardJobs) {
+                resumeOutput();
+            }
+            replayedJobs++;
+        }
+        if (suppressedOutput != null && replayScheduler.isTraceExhausted()) {
+            resumeOutput();
+        }
+        if (warmup && !warmedUp && replayScheduler.isTraceExhausted()) {
+            warmupFinished();
+        }
+        if (divergenceDetector.hasDiverged()) {
+            reportDivergence();
+            if (job == null) {
+                job = replayScheduler.pollOldest();
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Discards the output of a realm of the agent while the replay fast-forwards.
+     */
+    public void suppressOutput(PrintWriterWrapper out, PrintWriterWrapper err) {
+        if (replayedJobs < fastForwardJobs || (replayedJobs == fastForwardJobs && suppressedOutput != null)) {
+            if (suppressedOutput == null) {
+                suppressedOutput = new ArrayList<>();
+            }
+            out.suppress();
+            err.suppress();
+            suppressedOutput.add(out);
+            suppressedOutput.add(err);
+        }
+    }
+
+    private void resumeOutput() {
+        StringBuilder hashes = new StringBuilder();
+        for (PrintWriterWrapper writer : suppressedOutput) {
+            writer.resume();
+            hashes.append(hashes.length() == 0 ? "" : ", ").append(writer.getSuppressedChars()).append(" chars with hash ").append(Long.toHexString(writer.getSuppressedHash()));
+        }
+        PrintWriterWrapper err = suppressedOutput.get(1);
+        suppressedOutput = null;
+        if (!warmup) {
+            err.println("Agent " + signifier + " fast-forwarded over " + replayedJobs + " jobs, discarded output: " + hashes);
+            err.flush();
+        }
+    }
+
+    /**
+     * Returns whether a warm-up replay has run all jobs of its trace.
+     */
+    public boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    private void warmupFinished() {
+        warmedUp = true;
+        LOG.info("Agent " + signifier + " finished its warm-up replay");
+        if (!readyFile.isEmpty()) {
+            synchronized (RecordAndReplay.class) {
+                try (Writer writer = new FileWriter(readyFile, true)) {
+                    writer.write(signifier + System.lineSeparator());
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Cannot report the warm-up of agent " + signifier + " to " + readyFile, e);
+                }
+            }
+        }
+    }
+
+    private void reportDivergence() {
+        if (!divergenceReported) {
+            divergenceReported = true;
+            String message = "Replay of agent " + signifier + " diverged from its trace " + divergenceDetector.getDivergence();
+            if (divergencePolicy == DivergenceDetector.Policy.ABORT) {
+                throw Errors.createError(message);
+            }
+            LOG.warning(message);
+        }
     }
 
 }
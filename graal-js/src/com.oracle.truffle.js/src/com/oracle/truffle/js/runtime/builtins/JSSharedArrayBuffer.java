@@ -89,7 +89,7 @@ public final class JSSharedArrayBuffer extends JSAbstractBuffer implements JSCon
 
     public static DynamicObject createSharedArrayBuffer(JSContext context, ByteBuffer buffer) {
         assert buffer != null;
-        DynamicObject obj = JSObject.create(context, context.getSharedArrayBufferFactory(), buffer, new JSAgentWaiterList());
+        DynamicObject obj = JSObject.create(context, context.getSharedArrayBufferFactory(), buffer, new JSAgentWaiterList(context.getJSAgent().nextSharedBufferId()));
         assert isJSSharedArrayBuffer(obj);
         return obj;
     }
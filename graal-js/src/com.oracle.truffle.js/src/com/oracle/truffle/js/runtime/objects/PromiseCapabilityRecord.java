@@ -42,25 +42,25 @@ package com.oracle.truffle.js.runtime.objects;
 
 import com.oracle.truffle.api.object.DynamicObject;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 public final class PromiseCapabilityRecord {
     private DynamicObject promise;
     private Object resolve;
     private Object reject;
     private final int id;
 
-    private static final AtomicInteger identification = new AtomicInteger(0);
-
-    private PromiseCapabilityRecord(DynamicObject promise, DynamicObject resolve, DynamicObject reject) {
+    private PromiseCapabilityRecord(DynamicObject promise, DynamicObject resolve, DynamicObject reject, int id) {
         this.promise = promise;
         this.resolve = resolve;
         this.reject = reject;
-        this.id = identification.addAndGet(1);
+        this.id = id;
     }
 
-    public static PromiseCapabilityRecord create(DynamicObject promise, DynamicObject resolve, DynamicObject reject) {
-        return new PromiseCapabilityRecord(promise, resolve, reject);
+    /**
+     * @param id the id of the capability within its agent, see
+     *            {@link com.oracle.truffle.js.runtime.JSAgent#nextPromiseCapabilityId()}.
+     */
+    public static PromiseCapabilityRecord create(DynamicObject promise, DynamicObject resolve, DynamicObject reject, int id) {
+        return new PromiseCapabilityRecord(promise, resolve, reject, id);
     }
 
     public DynamicObject getPromise() {
@@ -75,7 +75,7 @@ public final class PromiseCapabilityRecord {
         return reject;
     }
 
-    public int getId(){
+    public int getId() {
         return id;
     }
 
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Trace writer that hands events to a background thread. The recording thread appends fixed-size
+ * records to a single-producer single-consumer ring buffer; the background thread drains the ring
+ * into the delegate writer, so the recording thread never performs I/O itself.
+ *
+ * The writer must only be written to from a single thread. {@link #flush()} and {@link #close()}
+ * may be called from any thread. The ring buffer capacity is rounded up to a power of two.
+ */
+public final class AsyncTraceWriter extends TraceWriter {
+
+    /**
+     * What the recording thread does when the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait until the background thread has made room. */
+        BLOCK,
+        /** Discard the event and count it in {@link AsyncTraceWriter#getDroppedEvents()}. */
+        DROP,
+        /** Continue in a ring buffer of twice the size. */
+        GROW;
+
+        public static OverflowPolicy fromString(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown overflow policy: " + name + ". Supported values are block, drop and grow.");
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final long IDLE_PARK_NANOS = 1000000L;
+    private static final long BLOCKED_PARK_NANOS = 10000L;
+    /* Sync events take three records: the lock, followed by these two. */
+    private static final int SYNC_ACQUISITION = -1;
+    private static final int SYNC_CLOCK = -2;
+    /* Values take two records: the type, followed by the bits. Their strings are passed separately. */
+    private static final int VALUE_BITS = -3;
+
+    private final TraceWriter delegate;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread writerThread;
+
+    /* Producer state. */
+    private RingBuffer producerRing;
+    private long cachedHead;
+    /* Only written by the producer, read by the metrics from any thread. */
+    private volatile long droppedEvents;
+
+    /* Consumer state. */
+    private RingBuffer consumerRing;
+    private volatile long highWaterMark;
+    private volatile long bufferedSize;
+    private volatile IOException failure;
+    private long syncLock;
+    private long syncAcquisition;
+    private int valueType;
+    private final ConcurrentLinkedQueue<String> valueStrings = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong flushRequests = new AtomicLong();
+    private volatile long flushesCompleted;
+    private volatile boolean closed;
+
+    public AsyncTraceWriter(TraceWriter delegate, int capacity, OverflowPolicy overflowPolicy) {
+        this.delegate = delegate;
+        this.overflowPolicy = overflowPolicy;
+        this.producerRing = new RingBuffer(capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+        this.consumerRing = producerRing;
+        this.writerThread = new Thread(this::drainLoop, "RecordAndReplay-Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void writeJob(int id) {
+        offer(TraceFormat.EVENT_JOB, id);
+    }
+
+    @Override
+    public void writeInput(int tag, long value) {
+        offer(tag, value);
+    }
+
+    @Override
+    public void writeCheckpoint(long checkpoint) {
+        offer(TraceFormat.EVENT_CHECKPOINT, checkpoint);
+    }
+
+    @Override
+    public void writeSegment(long firstJob) {
+        offer(TraceFormat.EVENT_SEGMENT, firstJob);
+    }
+
+    /**
+     * Not supported with {@link OverflowPolicy#DROP}, which could drop a part of the event.
+     */
+    @Override
+    public void writeSync(long lock, long acquisition, long clock) {
+        assert overflowPolicy != OverflowPolicy.DROP;
+        offer(TraceFormat.EVENT_SYNC, lock);
+        offer(SYNC_ACQUISITION, acquisition);
+        offer(SYNC_CLOCK, clock);
+    }
+
+    /**
+     * Not supported with {@link OverflowPolicy#DROP}, which could drop a part of the event.
+     */
+    @Override
+    public void writeValue(TraceValue value) {
+        assert overflowPolicy != OverflowPolicy.DROP;
+        if (value.getString() != null) {
+            valueStrings.add(value.getString());
+        }
+        offer(TraceFormat.EVENT_VALUE, value.getType());
+        offer(VALUE_BITS, value.getBits());
+    }
+
+    private void offer(int tag, long payload) {
+        RingBuffer ring = producerRing;
+        long tail = ring.tail;
+        if (tail - cachedHead >= ring.capacity) {
+            cachedHead = ring.head;
+            if (tail - cachedHead >= ring.capacity) {
+                ring = handleFull(ring, tail);
+                if (ring == null) {
+                    return;
+                }
+                tail = ring.tail;
+            }
+        }
+        int index = (int) (tail & ring.mask) << 1;
+        ring.records[index] = tag;
+        ring.records[index + 1] = payload;
+        RingBuffer.TAIL.lazySet(ring, tail + 1);
+    }
+
+    private RingBuffer handleFull(RingBuffer ring, long tail) {
+        switch (overflowPolicy) {
+            case DROP:
+                droppedEvents++;
+                return null;
+            case GROW:
+                RingBuffer grown = new RingBuffer(ring.capacity * 2);
+                producerRing = grown;
+                cachedHead = 0;
+                ring.next = grown;
+                return grown;
+            case BLOCK:
+            default:
+                do {
+                    LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+                    cachedHead = ring.head;
+                } while (tail - cachedHead >= ring.capacity && writerThread.isAlive());
+                return ring;
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return delegate.getSize();
+    }
+
+    /**
+     * Returns the size of the events buffered by the delegate after the background thread last
+     * drained the ring buffer. Events still in the ring buffer are not included.
+     */
+    @Override
+    public long getBufferedSize() {
+        return bufferedSize;
+    }
+
+    /**
+     * The delegate is flushed by the background thread, which records the latency.
+     */
+    @Override
+    public void setFlushLatency(TraceMetrics.Histogram flushLatency) {
+        delegate.setFlushLatency(flushLatency);
+    }
+
+    /**
+     * Number of events discarded because the ring buffer was full.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    /**
+     * Largest number of events the background thread found waiting in a ring buffer.
+     */
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    private void drainLoop() {
+        while (true) {
+            long requested = flushRequests.get();
+            boolean stop = closed;
+            if (drain()) {
+                continue;
+            }
+            // Only explicit requests flush the delegate, which would otherwise emit many tiny chunks.
+            if (requested != flushesCompleted) {
+                try {
+                    if (failure == null) {
+                        delegate.flush();
+                        bufferedSize = delegate.getBufferedSize();
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                }
+                flushesCompleted = requested;
+            }
+            if (stop) {
+                return;
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Writes all published records to the delegate. Returns whether any record was written.
+     */
+    private boolean drain() {
+        boolean drained = false;
+        while (true) {
+            RingBuffer ring = consumerRing;
+            long head = ring.head;
+            long tail = ring.tail;
+            if (head == tail) {
+                // The producer publishes the final tail before switching to the next ring.
+                if (ring.next != null && ring.tail == head) {
+                    consumerRing = ring.next;
+                    continue;
+                }
+                return drained;
+            }
+            if (tail - head > highWaterMark) {
+                highWaterMark = tail - head;
+            }
+            for (long i = head; i < tail; i++) {
+                int index = (int) (i & ring.mask) << 1;
+                write((int) ring.records[index], ring.records[index + 1]);
+            }
+            RingBuffer.HEAD.lazySet(ring, tail);
+            bufferedSize = delegate.getBufferedSize();
+            drained = true;
+        }
+    }
+
+    private void write(int tag, long payload) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            switch (tag) {
+                case TraceFormat.EVENT_JOB:
+                    delegate.writeJob((int) payload);
+                    break;
+                case TraceFormat.EVENT_CHECKPOINT:
+                    delegate.writeCheckpoint(payload);
+                    break;
+                case TraceFormat.EVENT_SEGMENT:
+                    delegate.writeSegment(payload);
+                    break;
+                case TraceFormat.EVENT_SYNC:
+                    syncLock = payload;
+                    break;
+                case SYNC_ACQUISITION:
+                    syncAcquisition = payload;
+                    break;
+                case SYNC_CLOCK:
+                    delegate.writeSync(syncLock, syncAcquisition, payload);
+                    break;
+                case TraceFormat.EVENT_VALUE:
+                    valueType = (int) payload;
+                    break;
+                case VALUE_BITS:
+                    String string = TraceFormat.hasValueString(valueType) ? valueStrings.poll() : null;
+                    delegate.writeValue(new TraceValue(valueType, payload, string));
+                    break;
+                default:
+                    delegate.writeInput(tag, payload);
+                    break;
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * The failure is thrown by the next {@link #flush()} or {@link #close()}.
+     */
+    private void fail(IOException e) {
+        failure = e;
+    }
+
+    /**
+     * Waits until all events written before this call have been passed to the file.
+     */
+    @Override
+    public void flush() throws IOException {
+        long request = flushRequests.incrementAndGet();
+        while (flushesCompleted < request && writerThread.isAlive()) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class RingBuffer {
+        static final AtomicLongFieldUpdater<RingBuffer> HEAD = AtomicLongFieldUpdater.newUpdater(RingBuffer.class, "head");
+        static final AtomicLongFieldUpdater<RingBuffer> TAIL = AtomicLongFieldUpdater.newUpdater(RingBuffer.class, "tail");
+
+        /** Two slots per record: event tag and payload. */
+        final long[] records;
+        final int capacity;
+        final int mask;
+
+        /** Index of the next record to be read, only advanced by the consumer. */
+        volatile long head;
+        /** Index of the next record to be written, only advanced by the producer. */
+        volatile long tail;
+        volatile RingBuffer next;
+
+        RingBuffer(int capacity) {
+            assert Integer.bitCount(capacity) == 1 : "capacity must be a power of two";
+            this.records = new long[capacity << 1];
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+        }
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.oracle.truffle.js.codec.BinaryDecoder;
+
+/**
+ * Reads events written by {@link BinaryTraceWriter}.
+ *
+ * Chunked traces are decompressed one chunk at a time. Older traces read from a file are
+ * memory-mapped one window at a time and decoded on demand. Either way, the heap footprint of the
+ * reader does not depend on the size of the trace.
+ */
+public final class BinaryTraceReader extends TraceReader {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Upper bound of the encoded size of a single event. */
+    private static final int MAX_EVENT_SIZE = 32;
+
+    private final ByteBuffer source;
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private long windowOffset;
+    private BinaryDecoder decoder;
+    private int agent;
+
+    private final int[] lastJobSequences = new int[TraceFormat.JOB_KINDS];
+    private long lastNanoTime;
+    private long lastWallClock;
+
+    /* Chunked traces. */
+    private boolean chunked;
+    private long dataStart;
+    private long dataEnd;
+    private long nextChunkOffset;
+    private long[] chunkOffsets;
+    private long[] chunkFirstEvents;
+    private long eventCount = -1;
+    private long eventIndex;
+    private long chunkEndEvent;
+    private Inflater inflater;
+    private byte[] compressed;
+    private byte[] uncompressed;
+
+    public BinaryTraceReader(ByteBuffer buffer) throws IOException {
+        this.source = buffer.slice();
+        this.channel = null;
+        this.size = source.remaining();
+        this.windowSize = source.remaining();
+        this.decoder = new BinaryDecoder(source);
+        readHeader();
+    }
+
+    public BinaryTraceReader(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_WINDOW_SIZE);
+    }
+
+    public BinaryTraceReader(FileChannel channel, int windowSize) throws IOException {
+        assert windowSize > MAX_EVENT_SIZE;
+        this.source = null;
+        this.channel = channel;
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0);
+        readHeader();
+    }
+
+    private void readHeader() throws IOException {
+        if (size < Integer.BYTES || decoder.getInt32() != TraceFormat.MAGIC) {
+            throw new IOException("Not a binary trace");
+        }
+        int version = decoder.getUInt();
+        if (version < TraceFormat.MIN_VERSION || version > TraceFormat.VERSION) {
+            throw new IOException("Unsupported trace version: " + version);
+        }
+        agent = version >= 2 ? decoder.getUInt() : TraceFormat.UNKNOWN_AGENT;
+        if (version >= TraceFormat.CHUNKED_VERSION) {
+            chunked = true;
+            dataStart = windowOffset + decoder.getBuffer().position();
+            dataEnd = size;
+            nextChunkOffset = dataStart;
+            inflater = new Inflater();
+            compressed = new byte[1024];
+            uncompressed = new byte[1024];
+            decoder = new BinaryDecoder(ByteBuffer.allocate(0));
+            readIndex();
+        }
+    }
+
+    /**
+     * Reads the chunk index, if the trace has one.
+     */
+    private void readIndex() throws IOException {
+        if (size - dataStart < TraceFormat.TRAILER_SIZE) {
+            return;
+        }
+        BinaryDecoder trailer = new BinaryDecoder(read(size - TraceFormat.TRAILER_SIZE, TraceFormat.TRAILER_SIZE));
+        long indexOffset = trailer.getInt64();
+        int chunkCount = trailer.getInt32();
+        if (trailer.getInt32() != TraceFormat.INDEX_MAGIC || indexOffset < dataStart ||
+                        indexOffset + (long) chunkCount * TraceFormat.INDEX_ENTRY_SIZE != size - TraceFormat.TRAILER_SIZE) {
+            return;
+        }
+        BinaryDecoder index = new BinaryDecoder(read(indexOffset, chunkCount * TraceFormat.INDEX_ENTRY_SIZE));
+        chunkOffsets = new long[chunkCount];
+        chunkFirstEvents = new long[chunkCount];
+        long events = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            chunkOffsets[i] = index.getInt64();
+            chunkFirstEvents[i] = events;
+            events += index.getInt32();
+        }
+        eventCount = events;
+        dataEnd = indexOffset;
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(offset, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(long offset, ByteBuffer buffer) throws IOException {
+        if (channel == null) {
+            ByteBuffer slice = source.duplicate();
+            slice.position((int) offset);
+            slice.limit((int) offset + buffer.remaining());
+            buffer.put(slice);
+            return;
+        }
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    private void map(long offset) throws IOException {
+        windowOffset = offset;
+        decoder = new BinaryDecoder(channel.map(MapMode.READ_ONLY, offset, Math.min(windowSize, size - offset)));
+    }
+
+    /**
+     * Makes sure the next event can be decoded: loads the next chunk once the current one is used
+     * up, or moves the mapped window forward if the next event could cross its end.
+     */
+    private void ensureAvailable() {
+        try {
+            if (chunked) {
+                while (!decoder.hasRemaining() && nextChunkOffset < dataEnd) {
+                    loadChunk(nextChunkOffset);
+                }
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            ByteBuffer buffer = decoder.getBuffer();
+            if (buffer.remaining() < MAX_EVENT_SIZE && windowOffset + buffer.limit() < size) {
+                map(windowOffset + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decompresses the chunk at the given offset. A chunk that was only partly written ends the
+     * trace.
+     */
+    private void loadChunk(long offset) throws IOException {
+        if (offset + TraceFormat.CHUNK_HEADER_SIZE > dataEnd) {
+            nextChunkOffset = dataEnd;
+            return;
+        }
+        ByteBuffer header = read(offset, TraceFormat.CHUNK_HEADER_SIZE);
+        int count = header.getInt();
+        int uncompressedSize = header.getInt();
+        int compressedSize = header.getInt();
+        long end = offset + TraceFormat.CHUNK_HEADER_SIZE + compressedSize;
+        if (compressedSize < 0 || uncompressedSize < 0 || end > dataEnd) {
+            nextChunkOffset = dataEnd;
+            return;
+        }
+        if (compressed.length < compressedSize) {
+            compressed = new byte[compressedSize];
+        }
+        if (uncompressed.length < uncompressedSize) {
+            uncompressed = new byte[uncompressedSize];
+        }
+        readFully(offset + TraceFormat.CHUNK_HEADER_SIZE, ByteBuffer.wrap(compressed, 0, compressedSize));
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedSize);
+        try {
+            int n = 0;
+            while (n < uncompressedSize && !inflater.finished()) {
+                n += inflater.inflate(uncompressed, n, uncompressedSize - n);
+            }
+            if (n != uncompressedSize) {
+                throw new IOException("Corrupt trace chunk at offset " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt trace chunk at offset " + offset, e);
+        }
+        decoder = new BinaryDecoder(ByteBuffer.wrap(uncompressed, 0, uncompressedSize));
+        nextChunkOffset = end;
+        chunkEndEvent = eventIndex + count;
+        Arrays.fill(lastJobSequences, 0);
+        lastNanoTime = 0;
+        lastWallClock = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        ensureAvailable();
+        return decoder.hasRemaining();
+    }
+
+    @Override
+    public int nextJob() {
+        ensureAvailable();
+        int tag = decoder.getUInt();
+        int kind = TraceFormat.getJobKindOfEvent(tag);
+        if (kind < 0) {
+            throw new IllegalStateException("Unknown trace event: " + tag);
+        }
+        eventIndex++;
+        return readJob(kind);
+    }
+
+    private int readJob(int kind) {
+        int sequence = lastJobSequences[kind] + decoder.getInt();
+        lastJobSequences[kind] = sequence;
+        // Traces before version 4 store reaction ids that may use the bits of the job kind.
+        return kind == TraceFormat.JOB_REACTION ? sequence : TraceFormat.jobId(kind, sequence);
+    }
+
+    @Override
+    public long nextInput(int tag) {
+        ensureAvailable();
+        int actual = decoder.getUInt();
+        if (actual != tag) {
+            throw new IllegalStateException("Expected trace event " + tag + " but found " + actual);
+        }
+        eventIndex++;
+        return readInput(tag);
+    }
+
+    @Override
+    public long nextCheckpoint() {
+        ensureAvailable();
+        int tag = decoder.getUInt();
+        if (tag != TraceFormat.EVENT_CHECKPOINT) {
+            throw new IllegalStateException("Expected trace checkpoint but found " + tag);
+        }
+        eventIndex++;
+        return readCheckpoint();
+    }
+
+    private long readCheckpoint() {
+        int hash = decoder.getInt32();
+        return TraceFormat.checkpoint(hash, decoder.getUInt());
+    }
+
+    @Override
+    public long nextSegment() {
+        ensureAvailable();
+        int tag = decoder.getUInt();
+        if (tag != TraceFormat.EVENT_SEGMENT) {
+            throw new IllegalStateException("Expected trace segment but found " + tag);
+        }
+        eventIndex++;
+        return decoder.getLong();
+    }
+
+    @Override
+    public SyncEvent nextSync() {
+        ensureAvailable();
+        int tag = decoder.getUInt();
+        if (tag != TraceFormat.EVENT_SYNC) {
+            throw new IllegalStateException("Expected trace lock acquisition but found " + tag);
+        }
+        eventIndex++;
+        return readSync();
+    }
+
+    private SyncEvent readSync() {
+        long lock = decoder.getLong();
+        long acquisition = decoder.getLong();
+        return new SyncEvent(lock, acquisition, decoder.getLong());
+    }
+
+    @Override
+    public TraceValue nextValue() {
+        ensureAvailable();
+        int tag = decoder.getUInt();
+        if (tag != TraceFormat.EVENT_VALUE) {
+            throw new IllegalStateException("Expected trace value but found " + tag);
+        }
+        eventIndex++;
+        return readValue();
+    }
+
+    private TraceValue readValue() {
+        int type = decoder.getUInt();
+        switch (type) {
+            case TraceFormat.VALUE_BOOLEAN:
+            case TraceFormat.VALUE_INT:
+            case TraceFormat.VALUE_LONG:
+                return TraceValue.of(type, decoder.getLong());
+            case TraceFormat.VALUE_DOUBLE:
+                return TraceValue.of(type, decoder.getInt64());
+            default:
+                if (TraceFormat.hasValueString(type)) {
+                    return TraceValue.of(type, decoder.getUTF8());
+                }
+                return TraceValue.of(type);
+        }
+    }
+
+    @Override
+    public int peekEvent() {
+        if (!hasNext()) {
+            return TraceFormat.EVENT_NONE;
+        }
+        ByteBuffer buffer = decoder.getBuffer();
+        int position = buffer.position();
+        int tag = decoder.getUInt();
+        buffer.position(position);
+        return tag;
+    }
+
+    private long readInput(int tag) {
+        switch (tag) {
+            case TraceFormat.EVENT_SEED:
+                return decoder.getInt64();
+            case TraceFormat.EVENT_NANO_TIME:
+                lastNanoTime += decoder.getLong();
+                return lastNanoTime;
+            case TraceFormat.EVENT_WALL_CLOCK:
+                lastWallClock += decoder.getLong();
+                return lastWallClock;
+            default:
+                throw new IllegalArgumentException("Unknown trace input: " + tag);
+        }
+    }
+
+    private void skipEvent() {
+        ensureAvailable();
+        int tag = decoder.getUInt();
+        int kind = TraceFormat.getJobKindOfEvent(tag);
+        if (kind >= 0) {
+            readJob(kind);
+        } else if (tag == TraceFormat.EVENT_CHECKPOINT) {
+            readCheckpoint();
+        } else if (tag == TraceFormat.EVENT_SEGMENT) {
+            decoder.getLong();
+        } else if (tag == TraceFormat.EVENT_SYNC) {
+            readSync();
+        } else if (tag == TraceFormat.EVENT_VALUE) {
+            readValue();
+        } else {
+            readInput(tag);
+        }
+        eventIndex++;
+    }
+
+    /**
+     * Returns the number of events in a chunked trace with an index, or -1 if it is not known
+     * without reading the whole trace.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the index of the next event.
+     */
+    public long getPosition() {
+        return eventIndex;
+    }
+
+    /**
+     * Moves the reader to the event with the given index. Chunks before the target are skipped
+     * without being decompressed where the trace format allows it.
+     */
+    public void seek(long event) throws IOException {
+        if (event < eventIndex) {
+            rewind();
+        }
+        if (chunked && chunkOffsets != null) {
+            int chunk = Arrays.binarySearch(chunkFirstEvents, event);
+            if (chunk < 0) {
+                chunk = -chunk - 2;
+            }
+            if (chunk >= 0 && chunkFirstEvents[chunk] > eventIndex) {
+                eventIndex = chunkFirstEvents[chunk];
+                loadChunk(chunkOffsets[chunk]);
+            }
+        } else if (chunked) {
+            skipChunks(event);
+        }
+        while (eventIndex < event && hasNext()) {
+            skipEvent();
+        }
+    }
+
+    /**
+     * Skips whole chunks of an unindexed trace by reading their headers only.
+     */
+    private void skipChunks(long event) throws IOException {
+        if (decoder.hasRemaining()) {
+            if (event < chunkEndEvent) {
+                return;
+            }
+            decoder = new BinaryDecoder(ByteBuffer.allocate(0));
+            eventIndex = chunkEndEvent;
+        }
+        while (nextChunkOffset + TraceFormat.CHUNK_HEADER_SIZE <= dataEnd) {
+            ByteBuffer header = read(nextChunkOffset, TraceFormat.CHUNK_HEADER_SIZE);
+            int count = header.getInt();
+            header.getInt();
+            int compressedSize = header.getInt();
+            if (eventIndex + count > event) {
+                return;
+            }
+            eventIndex += count;
+            nextChunkOffset += TraceFormat.CHUNK_HEADER_SIZE + compressedSize;
+        }
+    }
+
+    private void rewind() throws IOException {
+        eventIndex = 0;
+        Arrays.fill(lastJobSequences, 0);
+        lastNanoTime = 0;
+        lastWallClock = 0;
+        if (chunked) {
+            nextChunkOffset = dataStart;
+            decoder = new BinaryDecoder(ByteBuffer.allocate(0));
+        } else {
+            if (channel == null) {
+                decoder = new BinaryDecoder(source);
+            } else {
+                map(0);
+            }
+            readHeader();
+        }
+    }
+
+    @Override
+    public int getAgent() {
+        return agent;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
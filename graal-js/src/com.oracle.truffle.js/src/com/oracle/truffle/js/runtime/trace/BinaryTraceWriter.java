@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import com.oracle.truffle.js.codec.BinaryEncoder;
+
+/**
+ * Writes events in the binary trace format described in {@link TraceFormat}. Events are encoded
+ * into an in-memory chunk that is compressed and handed to the channel once it holds
+ * {@link #DEFAULT_CHUNK_EVENTS} events, or when the writer is flushed. Closing the writer appends
+ * the chunk index.
+ */
+public final class BinaryTraceWriter extends TraceWriter {
+
+    public static final int DEFAULT_CHUNK_EVENTS = 16 * 1024;
+
+    private final WritableByteChannel channel;
+    private final int chunkEvents;
+    private final BinaryEncoder encoder;
+    private final Deflater deflater;
+    private byte[] compressed;
+    private ByteBuffer header;
+    private volatile long position;
+
+    private int eventCount;
+    private final int[] lastJobSequences = new int[TraceFormat.JOB_KINDS];
+    private long lastNanoTime;
+    private long lastWallClock;
+
+    private long[] chunkOffsets;
+    private int[] chunkCounts;
+    private int chunkCount;
+
+    public BinaryTraceWriter(WritableByteChannel channel, int agent) {
+        this(channel, agent, DEFAULT_CHUNK_EVENTS);
+    }
+
+    public BinaryTraceWriter(WritableByteChannel channel, int agent, int chunkEvents) {
+        assert chunkEvents > 0;
+        this.channel = channel;
+        this.chunkEvents = chunkEvents;
+        this.encoder = new BinaryEncoder();
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.compressed = new byte[1024];
+        this.chunkOffsets = new long[16];
+        this.chunkCounts = new int[16];
+
+        BinaryEncoder headerEncoder = new BinaryEncoder();
+        headerEncoder.putInt32(TraceFormat.MAGIC);
+        headerEncoder.putUInt(TraceFormat.VERSION);
+        headerEncoder.putUInt(agent);
+        this.header = headerEncoder.getBuffer();
+    }
+
+    @Override
+    public void writeJob(int id) throws IOException {
+        int kind = TraceFormat.getJobKind(id);
+        int sequence = TraceFormat.getJobSequence(id);
+        encoder.putUInt(TraceFormat.getJobEvent(kind));
+        encoder.putInt(sequence - lastJobSequences[kind]);
+        lastJobSequences[kind] = sequence;
+        eventWritten();
+    }
+
+    @Override
+    public void writeInput(int tag, long value) throws IOException {
+        switch (tag) {
+            case TraceFormat.EVENT_SEED:
+                encoder.putUInt(tag);
+                encoder.putInt64(value);
+                break;
+            case TraceFormat.EVENT_NANO_TIME:
+                encoder.putUInt(tag);
+                encoder.putLong(value - lastNanoTime);
+                lastNanoTime = value;
+                break;
+            case TraceFormat.EVENT_WALL_CLOCK:
+                encoder.putUInt(tag);
+                encoder.putLong(value - lastWallClock);
+                lastWallClock = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown trace input: " + tag);
+        }
+        eventWritten();
+    }
+
+    @Override
+    public void writeCheckpoint(long checkpoint) throws IOException {
+        encoder.putUInt(TraceFormat.EVENT_CHECKPOINT);
+        encoder.putInt32(TraceFormat.getCheckpointHash(checkpoint));
+        encoder.putUInt(TraceFormat.getCheckpointDepth(checkpoint));
+        eventWritten();
+    }
+
+    @Override
+    public void writeSegment(long firstJob) throws IOException {
+        encoder.putUInt(TraceFormat.EVENT_SEGMENT);
+        encoder.putLong(firstJob);
+        eventWritten();
+    }
+
+    @Override
+    public void writeSync(long lock, long acquisition, long clock) throws IOException {
+        encoder.putUInt(TraceFormat.EVENT_SYNC);
+        encoder.putLong(lock);
+        encoder.putLong(acquisition);
+        encoder.putLong(clock);
+        eventWritten();
+    }
+
+    @Override
+    public void writeValue(TraceValue value) throws IOException {
+        encoder.putUInt(TraceFormat.EVENT_VALUE);
+        encoder.putUInt(value.getType());
+        switch (value.getType()) {
+            case TraceFormat.VALUE_BOOLEAN:
+            case TraceFormat.VALUE_INT:
+            case TraceFormat.VALUE_LONG:
+                encoder.putLong(value.getBits());
+                break;
+            case TraceFormat.VALUE_DOUBLE:
+                encoder.putInt64(value.getBits());
+                break;
+            default:
+                if (TraceFormat.hasValueString(value.getType())) {
+                    encoder.putUTF8(value.getString());
+                }
+                break;
+        }
+        eventWritten();
+    }
+
+    private void eventWritten() throws IOException {
+        if (++eventCount >= chunkEvents) {
+            writeChunk();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        writeHeader();
+        if (eventCount == 0) {
+            return;
+        }
+        long start = flushLatency == null ? 0 : System.nanoTime();
+        ByteBuffer payload = encoder.getBuffer();
+        int size = payload.remaining();
+        deflater.reset();
+        deflater.setInput(payload.array(), payload.arrayOffset() + payload.position(), size);
+        deflater.finish();
+        int compressedSize = 0;
+        while (!deflater.finished()) {
+            if (compressedSize == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+        }
+
+        ByteBuffer chunkHeader = ByteBuffer.allocate(TraceFormat.CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        chunkHeader.putInt(eventCount).putInt(size).putInt(compressedSize);
+        chunkHeader.flip();
+        addIndexEntry(position, eventCount);
+        write(chunkHeader);
+        write(ByteBuffer.wrap(compressed, 0, compressedSize));
+
+        encoder.reset();
+        eventCount = 0;
+        Arrays.fill(lastJobSequences, 0);
+        lastNanoTime = 0;
+        lastWallClock = 0;
+        if (flushLatency != null) {
+            flushLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (header != null) {
+            write(header);
+            header = null;
+        }
+    }
+
+    private void addIndexEntry(long offset, int count) {
+        if (chunkCount == chunkOffsets.length) {
+            chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+            chunkCounts = Arrays.copyOf(chunkCounts, chunkCount * 2);
+        }
+        chunkOffsets[chunkCount] = offset;
+        chunkCounts[chunkCount] = count;
+        chunkCount++;
+    }
+
+    private void writeIndex() throws IOException {
+        long indexOffset = position;
+        BinaryEncoder index = new BinaryEncoder();
+        for (int i = 0; i < chunkCount; i++) {
+            index.putInt64(chunkOffsets[i]);
+            index.putInt32(chunkCounts[i]);
+        }
+        index.putInt64(indexOffset);
+        index.putInt32(chunkCount);
+        index.putInt32(TraceFormat.INDEX_MAGIC);
+        write(index.getBuffer());
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        position += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return position;
+    }
+
+    /**
+     * The events of the current chunk count with their uncompressed size.
+     */
+    @Override
+    public long getBufferedSize() {
+        long size = header == null ? 0 : header.remaining();
+        if (eventCount > 0) {
+            size += TraceFormat.CHUNK_HEADER_SIZE + encoder.getPosition();
+        }
+        return size;
+    }
+
+    /**
+     * Compresses and writes the events of the current chunk. Flushing frequently results in small
+     * chunks that compress poorly.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeChunk();
+            writeIndex();
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+/**
+ * Compares a replayed run against the checkpoints of its trace.
+ *
+ * While recording, a rolling hash of the enqueued job ids and the number of pending jobs are
+ * written to the trace every few jobs. While replaying, the same state is kept for every job the
+ * program enqueues until the scheduler reaches the corresponding position in the trace, so the
+ * replayer does not need to know the checkpoint interval. The first mismatch is kept as the
+ * {@link #getDivergence() divergence} of the run.
+ *
+ * A trace {@link TraceFormat#EVENT_SEGMENT segment} starts with a checkpoint of the jobs pending
+ * before the segment, which the replayer compares with the state passed to
+ * {@link #startSegment(int)}.
+ */
+public final class DivergenceDetector {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+    /**
+     * What the replayer does once the run has diverged from the trace.
+     */
+    public enum Policy {
+        /** Stop with an error. */
+        ABORT,
+        /** Report the divergence and keep running jobs, falling back to their enqueue order. */
+        RELAXED;
+
+        public static Policy fromString(String name) {
+            for (Policy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown divergence policy: " + name + ". Supported values are abort and relaxed.");
+        }
+    }
+
+    private final int interval;
+    private int hash = TraceFormat.INITIAL_JOB_HASH;
+    private int depth;
+    private long jobs;
+
+    /* Replayed state after each of the last jobs, oldest first. */
+    private long[] states = new long[16];
+    private int statesHead;
+    private int statesSize;
+    /* Number of jobs read from the trace. */
+    private long recordedJobs;
+    private long lastCheckpointJobs;
+
+    private String divergence;
+
+    /**
+     * @param interval number of jobs between checkpoints when recording, ignored when replaying
+     */
+    public DivergenceDetector(int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Accounts for a recorded job and returns whether a {@link #getCheckpoint() checkpoint} is due.
+     *
+     * @param pending number of pending jobs, including this one
+     */
+    public boolean recordJob(int id, int pending) {
+        hash = TraceFormat.hashJob(hash, id);
+        depth = pending;
+        jobs++;
+        return interval > 0 && jobs % interval == 0;
+    }
+
+    public long getCheckpoint() {
+        return TraceFormat.checkpoint(hash, depth);
+    }
+
+    /**
+     * Called before the first job of a replayed segment is enqueued.
+     *
+     * @param pending number of jobs pending before the segment
+     */
+    public void startSegment(int pending) {
+        assert jobs == 0 && statesSize == 0;
+        states[statesHead] = TraceFormat.checkpoint(TraceFormat.INITIAL_JOB_HASH, pending);
+        statesSize = 1;
+    }
+
+    /**
+     * Accounts for a job enqueued by the replayed run.
+     *
+     * @param pending number of pending jobs, including this one
+     */
+    public void replayJob(int id, int pending) {
+        hash = TraceFormat.hashJob(hash, id);
+        jobs++;
+        if (statesSize == states.length) {
+            long[] grown = new long[states.length * 2];
+            int firstPart = states.length - statesHead;
+            System.arraycopy(states, statesHead, grown, 0, firstPart);
+            System.arraycopy(states, 0, grown, firstPart, statesHead);
+            states = grown;
+            statesHead = 0;
+        }
+        states[(statesHead + statesSize) & (states.length - 1)] = TraceFormat.checkpoint(hash, pending);
+        statesSize++;
+    }
+
+    /**
+     * Called when the scheduler reads the next job from the trace.
+     */
+    public void recordedJobRead() {
+        recordedJobs++;
+        // States before the last job read from the trace are not needed anymore.
+        while (statesSize > 0 && jobs - statesSize + 1 < recordedJobs) {
+            statesHead = (statesHead + 1) & (states.length - 1);
+            statesSize--;
+        }
+    }
+
+    /**
+     * Compares a checkpoint read from the trace with the replayed state after the same number of
+     * jobs. Returns {@code false} if the run has diverged.
+     */
+    public boolean checkpoint(long checkpoint) {
+        if (divergence != null) {
+            return false;
+        }
+        long windowStart = lastCheckpointJobs;
+        lastCheckpointJobs = recordedJobs;
+        if (recordedJobs > jobs) {
+            divergence = window(windowStart) + "expected " + describe(checkpoint) + ", but only " + jobs + " jobs were enqueued";
+            return false;
+        }
+        if (recordedJobs < jobs - statesSize + 1) {
+            // The replayer did not provide the state of a segment start.
+            return true;
+        }
+        long replayed = states[(int) ((statesHead + recordedJobs - (jobs - statesSize + 1)) & (states.length - 1))];
+        if (replayed != checkpoint) {
+            divergence = window(windowStart) + "expected " + describe(checkpoint) + ", found " + describe(replayed);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reports that the trace expects a job the program has not enqueued while other jobs are
+     * pending.
+     */
+    public void stalled(int expectedId, int pending) {
+        if (divergence == null) {
+            divergence = window(lastCheckpointJobs) + "job " + expectedId + " is next in the trace but was not enqueued, " + pending + " jobs are pending";
+        }
+    }
+
+    private String window(long windowStart) {
+        return "between recorded jobs " + windowStart + " and " + recordedJobs + ": ";
+    }
+
+    private static String describe(long checkpoint) {
+        return "hash " + Integer.toHexString(TraceFormat.getCheckpointHash(checkpoint)) + " with " + TraceFormat.getCheckpointDepth(checkpoint) + " pending jobs";
+    }
+
+    public boolean hasDiverged() {
+        return divergence != null;
+    }
+
+    /**
+     * Describes the window of the trace in which the run diverged, or returns {@code null}.
+     */
+    public String getDivergence() {
+        return divergence;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selects pending jobs in the order given by a recorded trace.
+ *
+ * Pending jobs are indexed by their id, so finding the next recorded job costs the same no matter
+ * how many jobs are pending. Jobs sharing an id are handed out in the order they were added. Once
+ * the trace is exhausted, pending jobs are handed out in the order they were added.
+ *
+ * Checkpoints found in the trace are passed to the {@link DivergenceDetector}, if there is one. The
+ * trace is read from the first added job on, so a trace that covers only a
+ * {@link TraceFormat#EVENT_SEGMENT segment} of the run can be inspected before the jobs of the
+ * segment are added.
+ *
+ * @param <T> the job type
+ */
+public final class ReplayScheduler<T> {
+
+    private final TraceReader reader;
+    private final DivergenceDetector detector;
+    private final long firstJob;
+    private TraceMetrics.Histogram reorderDistance;
+    private boolean started;
+    private boolean hasExpectedId;
+    private int expectedId;
+
+    private final Map<Integer, Entry<T>> pendingById;
+    /* Pending jobs in the order they were added. */
+    private Entry<T> oldest;
+    private Entry<T> newest;
+    private int size;
+    /* Number of jobs added so far, stamped on the entries to measure reorder distances. */
+    private long added;
+
+    public ReplayScheduler(TraceReader reader) {
+        this(reader, null);
+    }
+
+    public ReplayScheduler(TraceReader reader, DivergenceDetector detector) {
+        this.reader = reader;
+        this.detector = detector;
+        this.pendingById = new HashMap<>();
+        this.firstJob = reader.peekEvent() == TraceFormat.EVENT_SEGMENT ? reader.nextSegment() : 0;
+    }
+
+    /**
+     * Returns the number of jobs the recorded run enqueued before the first job of the trace.
+     */
+    public long getFirstJob() {
+        return firstJob;
+    }
+
+    /**
+     * Records how many older pending jobs every job handed out by {@link #poll()} overtook. The
+     * distance is the number of jobs added between the oldest pending job and the polled one, which
+     * also counts jobs in between that already ran, so it is an upper bound.
+     */
+    public void setReorderDistance(TraceMetrics.Histogram reorderDistance) {
+        this.reorderDistance = reorderDistance;
+    }
+
+    private void advance() {
+        while (reader.peekEvent() == TraceFormat.EVENT_CHECKPOINT) {
+            long checkpoint = reader.nextCheckpoint();
+            if (detector != null) {
+                detector.checkpoint(checkpoint);
+            }
+        }
+        hasExpectedId = reader.hasNext();
+        if (hasExpectedId) {
+            expectedId = reader.nextJob();
+            if (detector != null) {
+                detector.recordedJobRead();
+            }
+        }
+    }
+
+    public void add(int id, T job) {
+        if (!started) {
+            started = true;
+            advance();
+        }
+        if (detector != null) {
+            detector.replayJob(id, size + 1);
+        }
+        Entry<T> entry = new Entry<>(id, job, added++);
+        Entry<T> first = pendingById.putIfAbsent(id, entry);
+        if (first == null) {
+            entry.lastSameId = entry;
+        } else {
+            first.lastSameId.nextSameId = entry;
+            first.lastSameId = entry;
+        }
+        if (newest == null) {
+            oldest = entry;
+        } else {
+            newest.next = entry;
+            entry.prev = newest;
+        }
+        newest = entry;
+        size++;
+    }
+
+    /**
+     * Removes and returns the job to run next, or {@code null} if there is no pending job or the
+     * job recorded next has not been added yet.
+     */
+    public T poll() {
+        Entry<T> entry;
+        if (hasExpectedId) {
+            entry = pendingById.get(expectedId);
+            if (entry == null) {
+                return null;
+            }
+            if (reorderDistance != null) {
+                reorderDistance.record(getDistance(entry));
+            }
+            advance();
+        } else {
+            entry = oldest;
+            if (entry == null) {
+                return null;
+            }
+        }
+        remove(entry);
+        return entry.job;
+    }
+
+    /**
+     * Removes and returns the job that was added first, regardless of the trace. Used to keep a
+     * diverged run going.
+     */
+    public T pollOldest() {
+        Entry<T> entry = oldest;
+        if (entry == null) {
+            return null;
+        }
+        remove(entry);
+        return entry.job;
+    }
+
+    /**
+     * Returns the id of the job to run next according to the trace.
+     */
+    public int getExpectedId() {
+        assert hasExpectedId;
+        return expectedId;
+    }
+
+    private long getDistance(Entry<T> entry) {
+        return entry.sequence - oldest.sequence;
+    }
+
+    private void remove(Entry<T> entry) {
+        // The entry is always the oldest one with its id.
+        Entry<T> nextSameId = entry.nextSameId;
+        if (nextSameId == null) {
+            pendingById.remove(entry.id);
+        } else {
+            nextSameId.lastSameId = entry.lastSameId;
+            pendingById.put(entry.id, nextSameId);
+        }
+        if (entry.prev == null) {
+            oldest = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            newest = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns whether all recorded jobs have been handed out.
+     */
+    public boolean isTraceExhausted() {
+        return started && !hasExpectedId;
+    }
+
+    private static final class Entry<T> {
+        final int id;
+        final T job;
+        final long sequence;
+        Entry<T> prev;
+        Entry<T> next;
+        Entry<T> nextSameId;
+        /* Only maintained for the oldest entry with a given id. */
+        Entry<T> lastSameId;
+
+        Entry(int id, T job, long sequence) {
+            this.id = id;
+            this.job = job;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records or enforces the order in which an agent acquires locks shared with other agents, such as
+ * the locks that guard atomic operations and the waiter lists of {@code Atomics.wait} and
+ * {@code Atomics.notify}.
+ *
+ * Every lock is a {@link SyncPoint} that counts its acquisitions. While recording, the agent writes
+ * the id and the acquisition number of every lock it acquires to its sync channel, together with
+ * its logical clock. The clock is a Lamport clock that advances past the clock of the previous
+ * holder of the lock, so the traces of all agents can be merged into one order that is consistent
+ * with their synchronization.
+ *
+ * While replaying, an agent that is about to acquire a lock waits until all acquisitions of the
+ * lock that precede its recorded one have happened. Accesses to shared memory that do not take a
+ * lock are not ordered.
+ */
+public final class SyncOrder implements Closeable {
+
+    public static final long DEFAULT_TURN_TIMEOUT_MILLIS = 10000;
+
+    private static final long TURN_PARK_NANOS = 20000L;
+
+    private final TraceWriter writer;
+    private final TraceReader reader;
+    private final long turnTimeoutNanos;
+    private long clock;
+    private SyncEvent expected;
+    private String divergence;
+
+    /**
+     * Creates the sync order of a recording agent.
+     */
+    public SyncOrder(TraceWriter writer) {
+        this.writer = writer;
+        this.reader = null;
+        this.turnTimeoutNanos = 0;
+    }
+
+    /**
+     * Creates the sync order of a replaying agent.
+     *
+     * @param turnTimeoutMillis how long to wait for the turn of the agent before the run is
+     *            considered to have diverged
+     */
+    public SyncOrder(TraceReader reader, long turnTimeoutMillis) {
+        this.writer = null;
+        this.reader = reader;
+        this.turnTimeoutNanos = turnTimeoutMillis * 1_000_000L;
+    }
+
+    /**
+     * Called before the agent acquires the lock of a sync point. When replaying, blocks until it is
+     * the turn of the agent. Returns {@code false} if the run has diverged from the trace, in which
+     * case the order is not enforced anymore.
+     */
+    public boolean awaitTurn(SyncPoint point) {
+        if (reader == null || divergence != null) {
+            return divergence == null;
+        }
+        if (expected == null) {
+            if (reader.peekEvent() != TraceFormat.EVENT_SYNC) {
+                divergence = "lock " + Long.toHexString(point.getId()) + " was acquired after the end of the trace";
+                return false;
+            }
+            expected = reader.nextSync();
+        }
+        if (expected.getLock() != point.getId()) {
+            divergence = "expected " + expected + ", but lock " + Long.toHexString(point.getId()) + " was acquired";
+            return false;
+        }
+        long start = System.nanoTime();
+        while (point.getAcquisitions() < expected.getAcquisition()) {
+            if (System.nanoTime() - start >= turnTimeoutNanos) {
+                divergence = "timed out waiting for " + expected + ", the lock was acquired " + point.getAcquisitions() + " times";
+                return false;
+            }
+            LockSupport.parkNanos(this, TURN_PARK_NANOS);
+        }
+        if (point.getAcquisitions() > expected.getAcquisition()) {
+            divergence = "expected " + expected + ", but the lock was acquired " + point.getAcquisitions() + " times before";
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called by the agent right after it acquired the lock of a sync point.
+     */
+    public void acquired(SyncPoint point) throws IOException {
+        long acquisition = point.acquire(clock);
+        clock = point.getClock();
+        expected = null;
+        if (writer != null) {
+            writer.writeSync(point.getId(), acquisition, clock);
+        }
+    }
+
+    /**
+     * Returns the logical clock of the agent.
+     */
+    public long getClock() {
+        return clock;
+    }
+
+    /**
+     * Describes where the replayed run diverged from the trace, or returns {@code null}.
+     */
+    public String getDivergence() {
+        return divergence;
+    }
+
+    /**
+     * Returns the number of bytes passed to the sync channel, see {@link TraceWriter#getSize()}.
+     */
+    public long getSize() {
+        return writer == null ? 0 : writer.getSize();
+    }
+
+    public void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        } else {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads events written by {@link TextTraceWriter}.
+ */
+public final class TextTraceReader extends TraceReader {
+
+    private final BufferedReader reader;
+    private final int agent;
+    private String nextLine;
+
+    public TextTraceReader(InputStream in) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        String line = readNonEmptyLine();
+        if (line != null && line.startsWith(TraceFormat.TEXT_AGENT_PREFIX)) {
+            this.agent = Integer.parseInt(line.substring(TraceFormat.TEXT_AGENT_PREFIX.length()).trim());
+            line = readNonEmptyLine();
+        } else {
+            this.agent = TraceFormat.UNKNOWN_AGENT;
+        }
+        this.nextLine = line;
+    }
+
+    private String readNonEmptyLine() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+        } while (line != null && line.isEmpty());
+        return line;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextLine != null;
+    }
+
+    @Override
+    public int nextJob() {
+        String line = nextLine.trim();
+        int space = line.indexOf(' ');
+        int id;
+        if (space < 0) {
+            id = Integer.parseInt(line);
+        } else {
+            int kind = TraceFormat.getJobKindOfEvent(getJobEvent(line.substring(0, space)));
+            if (kind < 0) {
+                throw new IllegalStateException("Expected trace job but found " + line);
+            }
+            id = TraceFormat.jobId(kind, Integer.parseInt(line.substring(space + 1).trim()));
+        }
+        advance();
+        return id;
+    }
+
+    private static int getJobEvent(String name) {
+        for (int kind = TraceFormat.JOB_THENABLE; kind < TraceFormat.JOB_KINDS; kind++) {
+            if (name.equals(TraceFormat.getJobKindName(kind))) {
+                return TraceFormat.getJobEvent(kind);
+            }
+        }
+        return TraceFormat.EVENT_NONE;
+    }
+
+    @Override
+    public long nextInput(int tag) {
+        String name = TraceFormat.getInputName(tag);
+        String line = nextLine.trim();
+        if (!line.startsWith(name + ' ')) {
+            throw new IllegalStateException("Expected trace input " + name + " but found " + line);
+        }
+        long value = Long.parseLong(line.substring(name.length() + 1).trim());
+        advance();
+        return value;
+    }
+
+    @Override
+    public long nextCheckpoint() {
+        String[] parts = nextLine.trim().split(" +");
+        if (parts.length != 3 || !parts[0].equals(TraceFormat.TEXT_CHECKPOINT)) {
+            throw new IllegalStateException("Expected trace checkpoint but found " + nextLine);
+        }
+        long checkpoint = TraceFormat.checkpoint(Integer.parseUnsignedInt(parts[1], 16), Integer.parseInt(parts[2]));
+        advance();
+        return checkpoint;
+    }
+
+    @Override
+    public long nextSegment() {
+        String line = nextLine.trim();
+        if (!line.startsWith(TraceFormat.TEXT_SEGMENT + ' ')) {
+            throw new IllegalStateException("Expected trace segment but found " + line);
+        }
+        long firstJob = Long.parseLong(line.substring(TraceFormat.TEXT_SEGMENT.length() + 1).trim());
+        advance();
+        return firstJob;
+    }
+
+    @Override
+    public SyncEvent nextSync() {
+        String[] parts = nextLine.trim().split(" +");
+        if (parts.length != 4 || !parts[0].equals(TraceFormat.TEXT_SYNC)) {
+            throw new IllegalStateException("Expected trace lock acquisition but found " + nextLine);
+        }
+        SyncEvent event = new SyncEvent(Long.parseUnsignedLong(parts[1], 16), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+        advance();
+        return event;
+    }
+
+    @Override
+    public TraceValue nextValue() {
+        String[] parts = nextLine.trim().split(" +");
+        if (parts.length < 2 || parts.length > 3 || !parts[0].equals(TraceFormat.TEXT_VALUE)) {
+            throw new IllegalStateException("Expected trace value but found " + nextLine);
+        }
+        int type = TraceFormat.getValueType(parts[1]);
+        String payload = parts.length == 3 ? parts[2] : "";
+        TraceValue value;
+        switch (type) {
+            case TraceFormat.VALUE_BOOLEAN:
+            case TraceFormat.VALUE_INT:
+            case TraceFormat.VALUE_LONG:
+                value = TraceValue.of(type, Long.parseLong(payload));
+                break;
+            case TraceFormat.VALUE_DOUBLE:
+                value = TraceValue.of(type, Long.parseUnsignedLong(payload, 16));
+                break;
+            default:
+                value = TraceFormat.hasValueString(type) ? TraceValue.of(type, TraceFormat.unescape(payload)) : TraceValue.of(type);
+                break;
+        }
+        advance();
+        return value;
+    }
+
+    @Override
+    public int peekEvent() {
+        if (nextLine == null) {
+            return TraceFormat.EVENT_NONE;
+        }
+        String line = nextLine.trim();
+        int space = line.indexOf(' ');
+        String name = space < 0 ? "" : line.substring(0, space);
+        if (name.equals(TraceFormat.TEXT_CHECKPOINT)) {
+            return TraceFormat.EVENT_CHECKPOINT;
+        } else if (name.equals(TraceFormat.TEXT_SEGMENT)) {
+            return TraceFormat.EVENT_SEGMENT;
+        } else if (name.equals(TraceFormat.TEXT_SYNC)) {
+            return TraceFormat.EVENT_SYNC;
+        } else if (name.equals(TraceFormat.TEXT_VALUE)) {
+            return TraceFormat.EVENT_VALUE;
+        }
+        for (int tag = TraceFormat.EVENT_SEED; tag <= TraceFormat.EVENT_WALL_CLOCK; tag++) {
+            if (name.equals(TraceFormat.getInputName(tag))) {
+                return tag;
+            }
+        }
+        int jobEvent = getJobEvent(name);
+        return jobEvent == TraceFormat.EVENT_NONE ? TraceFormat.EVENT_JOB : jobEvent;
+    }
+
+    private void advance() {
+        try {
+            nextLine = readNonEmptyLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int getAgent() {
+        return agent;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
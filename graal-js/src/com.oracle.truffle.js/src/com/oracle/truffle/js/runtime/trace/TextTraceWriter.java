@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes events as human-readable text, one promise job id per line. Meant for debugging.
+ */
+public final class TextTraceWriter extends TraceWriter {
+
+    private final CountingBufferedWriter writer;
+    private final CountingOutputStream out;
+
+    public TextTraceWriter(OutputStream out, int agent) throws IOException {
+        this.out = new CountingOutputStream(out);
+        this.writer = new CountingBufferedWriter(new OutputStreamWriter(this.out, StandardCharsets.US_ASCII));
+        writer.write(TraceFormat.TEXT_AGENT_PREFIX);
+        writer.write(Integer.toString(agent));
+        writer.newLine();
+    }
+
+    @Override
+    public void writeJob(int id) throws IOException {
+        int kind = TraceFormat.getJobKind(id);
+        if (kind != TraceFormat.JOB_REACTION) {
+            writer.write(TraceFormat.getJobKindName(kind));
+            writer.write(' ');
+        }
+        writer.write(Integer.toString(TraceFormat.getJobSequence(id)));
+        writer.newLine();
+    }
+
+    @Override
+    public void writeInput(int tag, long value) throws IOException {
+        writer.write(TraceFormat.getInputName(tag));
+        writer.write(' ');
+        writer.write(Long.toString(value));
+        writer.newLine();
+    }
+
+    @Override
+    public void writeCheckpoint(long checkpoint) throws IOException {
+        writer.write(TraceFormat.TEXT_CHECKPOINT);
+        writer.write(' ');
+        writer.write(Integer.toHexString(TraceFormat.getCheckpointHash(checkpoint)));
+        writer.write(' ');
+        writer.write(Integer.toString(TraceFormat.getCheckpointDepth(checkpoint)));
+        writer.newLine();
+    }
+
+    @Override
+    public void writeSegment(long firstJob) throws IOException {
+        writer.write(TraceFormat.TEXT_SEGMENT);
+        writer.write(' ');
+        writer.write(Long.toString(firstJob));
+        writer.newLine();
+    }
+
+    @Override
+    public void writeSync(long lock, long acquisition, long clock) throws IOException {
+        writer.write(TraceFormat.TEXT_SYNC);
+        writer.write(' ');
+        writer.write(Long.toHexString(lock));
+        writer.write(' ');
+        writer.write(Long.toString(acquisition));
+        writer.write(' ');
+        writer.write(Long.toString(clock));
+        writer.newLine();
+    }
+
+    @Override
+    public void writeValue(TraceValue value) throws IOException {
+        writer.write(TraceFormat.TEXT_VALUE);
+        writer.write(' ');
+        writer.write(TraceFormat.getValueTypeName(value.getType()));
+        switch (value.getType()) {
+            case TraceFormat.VALUE_BOOLEAN:
+            case TraceFormat.VALUE_INT:
+            case TraceFormat.VALUE_LONG:
+                writer.write(' ');
+                writer.write(Long.toString(value.getBits()));
+                break;
+            case TraceFormat.VALUE_DOUBLE:
+                writer.write(' ');
+                writer.write(Long.toHexString(value.getBits()));
+                break;
+            default:
+                if (TraceFormat.hasValueString(value.getType())) {
+                    writer.write(' ');
+                    writer.write(TraceFormat.escape(value.getString()));
+                }
+                break;
+        }
+        writer.newLine();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = flushLatency == null ? 0 : System.nanoTime();
+        writer.flush();
+        if (flushLatency != null) {
+            flushLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return out.count;
+    }
+
+    @Override
+    public long getBufferedSize() {
+        return writer.count - out.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = flushLatency == null ? 0 : System.nanoTime();
+        writer.close();
+        if (flushLatency != null) {
+            flushLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Counts the characters written, which are ASCII and take one byte each.
+     */
+    private static final class CountingBufferedWriter extends BufferedWriter {
+        long count;
+
+        CountingBufferedWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            super.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String s, int off, int len) throws IOException {
+            super.write(s, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        volatile long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
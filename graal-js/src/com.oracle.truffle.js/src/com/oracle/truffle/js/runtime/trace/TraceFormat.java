@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+/**
+ * Constants describing the on-disk layout of record and replay traces.
+ *
+ * A binary trace starts with a header consisting of the {@link #MAGIC} signature (4 bytes,
+ * little-endian), the format {@link #VERSION} and the signifier of the recording agent (both
+ * unsigned varints), followed by a sequence of chunks and the chunk index.
+ *
+ * A chunk starts with the number of events, the uncompressed size and the compressed size of its
+ * payload (4 bytes each), followed by the payload compressed with {@link java.util.zip.Deflater}.
+ * The payload is a sequence of events. Every event is an unsigned varint tag followed by its
+ * payload. Promise jobs are typed: every {@link #JOB_REACTION job kind} has its own event tag, and
+ * job ids are stored as signed varint deltas to the previously recorded id of the same kind in the
+ * same chunk, so every chunk can be decoded on its own. Checkpoints store the rolling
+ * {@link #hashJob(int, int) hash} of the recorded job ids (4 bytes) and the number of pending jobs
+ * (unsigned varint). A trace that only covers a part of the run starts with a segment event that
+ * holds the number of jobs the agent enqueued before the segment (signed varint), followed by a
+ * checkpoint with the initial hash and the number of jobs pending at the start of the segment.
+ *
+ * The chunk index lists the file offset (8 bytes) and the number of events (4 bytes) of every
+ * chunk. It is followed by a {@link #TRAILER_SIZE fixed-size trailer} holding the offset of the
+ * index (8 bytes), the number of chunks (4 bytes) and the {@link #INDEX_MAGIC} signature. A trace
+ * that was not closed properly has no index; its chunks can still be read one after the other.
+ *
+ * Version 1 and 2 traces store the events uncompressed directly after the header. Traces before
+ * version 4 only contain promise reaction jobs.
+ *
+ * Nondeterministic inputs of an agent are recorded in a separate trace with the same layout, the
+ * {@link #INPUTS_SUFFIX inputs channel}. Random seeds are stored as 8 byte values, clock readings
+ * as signed varint deltas to the previous reading of the same clock.
+ *
+ * Acquisitions of locks shared between agents are recorded in the {@link #SYNC_SUFFIX sync
+ * channel}, see {@link SyncOrder}. Every event holds the id of the lock, the number of earlier
+ * acquisitions of the lock and the logical clock of the agent (signed varints each).
+ *
+ * Results of calls to the host are recorded in the {@link #INTEROP_SUFFIX interop channel}. Every
+ * event holds the {@link #getValueTypeName(int) type} of the value (unsigned varint) followed by
+ * its payload: booleans and integers as signed varints, doubles as their 8 byte representation,
+ * strings, big integers and error messages as UTF-8 strings.
+ *
+ * A text trace starts with an {@link #TEXT_AGENT_PREFIX agent line} and contains one promise job per
+ * line: reaction jobs as their decimal id, other jobs as the {@link #getJobKindName(int) name} of
+ * their kind followed by the decimal id. Inputs are written as their {@link #getInputName(int)
+ * name} followed by the decimal value, checkpoints as {@code checkpoint <hash> <pending jobs>},
+ * segment starts as {@code segment <first job>}, lock acquisitions as
+ * {@code sync <lock> <acquisition> <clock>} and values as {@code value <type> <payload>}, with
+ * strings {@link #escape(String) escaped}.
+ *
+ * Promise job ids are allocated per agent, so a trace is only meaningful together with the
+ * signifier of the agent that recorded it.
+ */
+public final class TraceFormat {
+
+    /** Binary trace signature, "GJRR" in little-endian byte order. */
+    public static final int MAGIC = 0x52524A47;
+    public static final int VERSION = 4;
+    /** Oldest version that is still readable. Version 1 traces have no agent signifier. */
+    public static final int MIN_VERSION = 1;
+    /** First version that stores events in compressed chunks. */
+    public static final int CHUNKED_VERSION = 3;
+
+    /** Chunk index signature, "GJRX" in little-endian byte order. */
+    public static final int INDEX_MAGIC = 0x58524A47;
+    public static final int CHUNK_HEADER_SIZE = 3 * Integer.BYTES;
+    public static final int TRAILER_SIZE = Long.BYTES + 2 * Integer.BYTES;
+    public static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    /** Signifier reported for traces that do not record their agent. */
+    public static final int UNKNOWN_AGENT = -1;
+
+    public static final String TEXT_AGENT_PREFIX = "# agent ";
+
+    /** Promise reaction job. */
+    public static final int EVENT_JOB = 1;
+    /** Seed of the random number generator of a realm. */
+    public static final int EVENT_SEED = 2;
+    /** Reading of {@link System#nanoTime()}. */
+    public static final int EVENT_NANO_TIME = 3;
+    /** Reading of {@link System#currentTimeMillis()}. */
+    public static final int EVENT_WALL_CLOCK = 4;
+    /** State of the job queue, see {@link DivergenceDetector}. */
+    public static final int EVENT_CHECKPOINT = 5;
+    /** Start of a trace that covers only a part of the run. */
+    public static final int EVENT_SEGMENT = 6;
+    /** Promise job of kind {@link #JOB_THENABLE}; the other job kinds follow. */
+    public static final int EVENT_THENABLE_JOB = 7;
+    public static final int EVENT_MICROTASK_JOB = 8;
+    public static final int EVENT_HOST_JOB = 9;
+    /** Acquisition of a lock shared between agents. */
+    public static final int EVENT_SYNC = 10;
+    /** A recorded value, see {@link TraceValue}. */
+    public static final int EVENT_VALUE = 11;
+    /** Returned when peeking at the end of a trace. */
+    public static final int EVENT_NONE = -1;
+
+    public static final String TEXT_CHECKPOINT = "checkpoint";
+    public static final String TEXT_SEGMENT = "segment";
+    public static final String TEXT_SYNC = "sync";
+    public static final String TEXT_VALUE = "value";
+
+    public static final int VALUE_UNDEFINED = 0;
+    public static final int VALUE_NULL = 1;
+    public static final int VALUE_BOOLEAN = 2;
+    public static final int VALUE_INT = 3;
+    /** Number that is an integer outside of the int range. */
+    public static final int VALUE_LONG = 4;
+    public static final int VALUE_DOUBLE = 5;
+    public static final int VALUE_STRING = 6;
+    /** Big integer in decimal notation. */
+    public static final int VALUE_BIGINT = 7;
+    /** Object that cannot be recorded, such as a host object. */
+    public static final int VALUE_OBJECT = 8;
+    /** Error thrown by the call, with its message. */
+    public static final int VALUE_ERROR = 9;
+    private static final String[] VALUE_TYPE_NAMES = {"undefined", "null", "boolean", "int", "long", "double", "string", "bigint", "object", "error"};
+
+    /**
+     * Promise reaction job, identified by the id of the promise capability it resolves. The other
+     * kinds of jobs are numbered in the order the agent enqueues them.
+     */
+    public static final int JOB_REACTION = 0;
+    /** PromiseResolveThenableJob. */
+    public static final int JOB_THENABLE = 1;
+    /** Job enqueued by the embedder, for example a native microtask of Node.js. */
+    public static final int JOB_MICROTASK = 2;
+    /** Job enqueued on behalf of a host operation, such as a dynamic import. */
+    public static final int JOB_HOST = 3;
+    public static final int JOB_KINDS = 4;
+
+    private static final int JOB_KIND_SHIFT = 30;
+    private static final int JOB_SEQUENCE_MASK = (1 << JOB_KIND_SHIFT) - 1;
+
+    public static final int INITIAL_JOB_HASH = 0x811C9DC5;
+
+    public static final String DEFAULT_FILE = "serialized.tracing";
+    public static final String INPUTS_SUFFIX = ".inputs";
+    public static final String SYNC_SUFFIX = ".sync";
+    public static final String INTEROP_SUFFIX = ".interop";
+
+    public enum Encoding {
+        BINARY,
+        TEXT;
+
+        public static Encoding fromString(String name) {
+            for (Encoding encoding : values()) {
+                if (encoding.name().equalsIgnoreCase(name)) {
+                    return encoding;
+                }
+            }
+            throw new IllegalArgumentException("Unknown trace encoding: " + name + ". Supported values are binary and text.");
+        }
+    }
+
+    /**
+     * Returns the id of a promise job, which holds the kind of the job in its top two bits.
+     * Sequence numbers wrap around after 2^30 jobs of the same kind.
+     */
+    public static int jobId(int kind, int sequence) {
+        assert kind >= 0 && kind < JOB_KINDS;
+        return (kind << JOB_KIND_SHIFT) | (sequence & JOB_SEQUENCE_MASK);
+    }
+
+    public static int getJobKind(int jobId) {
+        return jobId >>> JOB_KIND_SHIFT;
+    }
+
+    public static int getJobSequence(int jobId) {
+        return jobId & JOB_SEQUENCE_MASK;
+    }
+
+    public static int getJobEvent(int kind) {
+        return kind == JOB_REACTION ? EVENT_JOB : EVENT_THENABLE_JOB + kind - JOB_THENABLE;
+    }
+
+    /**
+     * Returns the job kind recorded by an event, or -1 if the event is not a job.
+     */
+    public static int getJobKindOfEvent(int tag) {
+        if (tag == EVENT_JOB) {
+            return JOB_REACTION;
+        } else if (tag >= EVENT_THENABLE_JOB && tag <= EVENT_HOST_JOB) {
+            return tag - EVENT_THENABLE_JOB + JOB_THENABLE;
+        }
+        return -1;
+    }
+
+    public static String getJobKindName(int kind) {
+        switch (kind) {
+            case JOB_REACTION:
+                return "reaction";
+            case JOB_THENABLE:
+                return "thenable";
+            case JOB_MICROTASK:
+                return "microtask";
+            case JOB_HOST:
+                return "host";
+            default:
+                throw new IllegalArgumentException("Unknown job kind: " + kind);
+        }
+    }
+
+    /**
+     * Adds a job id to the rolling hash of a job sequence (FNV-1a over the 4 bytes of the id).
+     */
+    public static int hashJob(int hash, int id) {
+        int h = hash;
+        for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+            h = (h ^ ((id >>> shift) & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    public static long checkpoint(int hash, int pending) {
+        return ((long) pending << Integer.SIZE) | (hash & 0xFFFFFFFFL);
+    }
+
+    public static int getCheckpointHash(long checkpoint) {
+        return (int) checkpoint;
+    }
+
+    public static int getCheckpointDepth(long checkpoint) {
+        return (int) (checkpoint >>> Integer.SIZE);
+    }
+
+    /**
+     * Returns the name of a segment of the trace of an agent.
+     */
+    public static String getSegmentFile(String agentTraceFile, int segment) {
+        return agentTraceFile + "-" + segment;
+    }
+
+    public static String getInputName(int tag) {
+        switch (tag) {
+            case EVENT_SEED:
+                return "seed";
+            case EVENT_NANO_TIME:
+                return "nano";
+            case EVENT_WALL_CLOCK:
+                return "wall";
+            default:
+                throw new IllegalArgumentException("Unknown trace input: " + tag);
+        }
+    }
+
+    public static String getValueTypeName(int type) {
+        if (type < 0 || type >= VALUE_TYPE_NAMES.length) {
+            throw new IllegalArgumentException("Unknown value type: " + type);
+        }
+        return VALUE_TYPE_NAMES[type];
+    }
+
+    public static int getValueType(String name) {
+        for (int type = 0; type < VALUE_TYPE_NAMES.length; type++) {
+            if (VALUE_TYPE_NAMES[type].equals(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown value type: " + name);
+    }
+
+    /**
+     * Returns whether values of the given type are stored as a string.
+     */
+    public static boolean hasValueString(int type) {
+        return type == VALUE_STRING || type == VALUE_BIGINT || type == VALUE_ERROR;
+    }
+
+    /**
+     * Escapes a string for a text trace, which only contains printable ASCII characters.
+     */
+    public static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c > ' ' && c < 0x7F) {
+                sb.append(c);
+            } else {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+            } else if (value.startsWith("u", i + 1) && i + 6 <= value.length()) {
+                sb.append((char) Integer.parseInt(value.substring(i + 2, i + 6), 16));
+                i += 5;
+            } else if (i + 1 < value.length()) {
+                sb.append(value.charAt(++i));
+            } else {
+                throw new IllegalArgumentException("Unterminated escape: " + value);
+            }
+        }
+        return sb.toString();
+    }
+
+    private TraceFormat() {
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Ties together the traces of all agents recorded under the same trace file name.
+ *
+ * Every agent records into its own file named {@code <trace-file>.<signifier>}. The manifest
+ * {@code <trace-file>.manifest} lists one {@code <signifier> <file name>} pair per line, in the
+ * order the agents started recording. The manifest is rewritten the first time an agent of this
+ * process records under a given trace file name.
+ */
+public final class TraceManifest {
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    /* Manifests written by this process. */
+    private static final Set<Path> manifests = new HashSet<>();
+
+    private TraceManifest() {
+    }
+
+    public static String getAgentTraceFile(String traceFile, int signifier) {
+        return traceFile + "." + signifier;
+    }
+
+    private static Path getManifest(String traceFile) {
+        return Paths.get(traceFile + MANIFEST_SUFFIX).toAbsolutePath();
+    }
+
+    /**
+     * Adds the trace of an agent to the manifest and returns the file the agent records into.
+     */
+    public static synchronized String register(String traceFile, int signifier) throws IOException {
+        String agentTraceFile = getAgentTraceFile(traceFile, signifier);
+        Path manifest = getManifest(traceFile);
+        StandardOpenOption mode = manifests.add(manifest) ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND;
+        try (Writer writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            writer.write(signifier + " " + Paths.get(agentTraceFile).getFileName() + "\n");
+        }
+        return agentTraceFile;
+    }
+
+    /**
+     * Returns the trace recorded by the agent with the given signifier. Without a manifest, the
+     * trace file itself is assumed to be a single-agent trace.
+     */
+    public static String lookup(String traceFile, int signifier) throws IOException {
+        Path manifest = getManifest(traceFile);
+        if (!Files.exists(manifest)) {
+            return traceFile;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator > 0 && Integer.parseInt(line.substring(0, separator)) == signifier) {
+                    return manifest.resolveSibling(line.substring(separator + 1)).toString();
+                }
+            }
+        }
+        throw new IOException("No trace recorded for agent " + signifier + " in " + manifest);
+    }
+}
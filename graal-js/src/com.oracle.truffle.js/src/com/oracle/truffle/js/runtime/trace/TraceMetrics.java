@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing the overhead of recording and the behavior of a replay. Counters are updated
+ * by the recording thread and may be read from any thread.
+ */
+public final class TraceMetrics {
+
+    private final LongAdder eventsRecorded = new LongAdder();
+    private volatile long bytesWritten;
+    private volatile long queueHighWaterMark;
+    private volatile long droppedEvents;
+    private final Histogram flushLatency = new Histogram();
+    private final Histogram reorderDistance = new Histogram();
+
+    public void eventRecorded() {
+        eventsRecorded.increment();
+    }
+
+    public long getEventsRecorded() {
+        return eventsRecorded.sum();
+    }
+
+    /**
+     * Returns the number of bytes passed to the trace files, see {@link TraceWriter#getSize()}.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * Returns the largest number of events that waited in the ring buffer of an
+     * {@link AsyncTraceWriter}.
+     */
+    public long getQueueHighWaterMark() {
+        return queueHighWaterMark;
+    }
+
+    public void setQueueHighWaterMark(long queueHighWaterMark) {
+        this.queueHighWaterMark = queueHighWaterMark;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public void setDroppedEvents(long droppedEvents) {
+        this.droppedEvents = droppedEvents;
+    }
+
+    /**
+     * Returns the time it took to pass buffered events to the trace files, in nanoseconds, see
+     * {@link TraceWriter#setFlushLatency}.
+     */
+    public Histogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * Returns the number of pending jobs that were enqueued before the job a replay ran next, that
+     * is how far the replayed order departs from the order the jobs were enqueued in. Only collected
+     * while the metrics are dumped periodically, see {@link ReplayScheduler#setReorderDistance}.
+     */
+    public Histogram getReorderDistance() {
+        return reorderDistance;
+    }
+
+    public void dump(PrintStream out, String title) {
+        out.println(title);
+        out.println("  events recorded: " + getEventsRecorded());
+        out.println("  bytes written: " + bytesWritten);
+        out.println("  writer queue high-water mark: " + queueHighWaterMark);
+        out.println("  dropped events: " + droppedEvents);
+        out.println("  flush latency (ns): " + flushLatency);
+        out.println("  reorder distance: " + reorderDistance);
+    }
+
+    /**
+     * Histogram of non-negative values with power-of-two buckets: bucket {@code i} counts the
+     * values below {@code 2^i} that do not fit into a smaller bucket.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = Long.SIZE + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private volatile long max;
+
+        public void record(long value) {
+            assert value >= 0;
+            counts.incrementAndGet(getBucket(value));
+            sum.add(value);
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        static int getBucket(long value) {
+            return Long.SIZE - Long.numberOfLeadingZeros(value);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * Returns the number of values in the bucket of values below {@code 2^bucket}.
+         */
+        public long getCount(int bucket) {
+            return counts.get(bucket);
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, which is exact up to a factor of two.
+         */
+        public long getPercentile(double percentile) {
+            long count = getCount();
+            long remaining = (long) Math.ceil(count * percentile / 100);
+            for (int i = 0; i < BUCKETS; i++) {
+                remaining -= counts.get(i);
+                if (remaining <= 0 && counts.get(i) > 0) {
+                    if (i == 0) {
+                        return 0;
+                    } else if (i == BUCKETS - 1) {
+                        return max;
+                    }
+                    return Math.min(max, (1L << i) - 1);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            long count = getCount();
+            if (count == 0) {
+                return "no values";
+            }
+            return "count " + count + ", mean " + getSum() / count + ", p50 <= " + getPercentile(50) + ", p99 <= " + getPercentile(99) + ", max " + max;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential reader of recorded events. The encoding of the trace is detected from its header;
+ * events are decoded lazily as the reader advances.
+ */
+public abstract class TraceReader implements Closeable {
+
+    public abstract boolean hasNext();
+
+    /**
+     * Reads the next event, which must be a promise job, and returns its
+     * {@link TraceFormat#jobId(int, int) id}.
+     */
+    public abstract int nextJob();
+
+    /**
+     * Reads the next event, which must be an input with the given tag.
+     *
+     * @throws IllegalStateException if the next event is of a different kind
+     */
+    public abstract long nextInput(int tag);
+
+    /**
+     * Reads the next event, which must be a {@link TraceFormat#checkpoint(int, int) checkpoint}.
+     */
+    public abstract long nextCheckpoint();
+
+    /**
+     * Reads the next event, which must be a {@link TraceFormat#EVENT_SEGMENT segment start}, and
+     * returns the number of jobs enqueued before the segment.
+     */
+    public abstract long nextSegment();
+
+    /**
+     * Reads the next event, which must be a {@link TraceFormat#EVENT_SYNC lock acquisition}.
+     */
+    public abstract SyncEvent nextSync();
+
+    /**
+     * Reads the next event, which must be a {@link TraceFormat#EVENT_VALUE value}.
+     */
+    public abstract TraceValue nextValue();
+
+    /**
+     * Returns the tag of the next event without consuming it, or {@link TraceFormat#EVENT_NONE} at
+     * the end of the trace.
+     */
+    public abstract int peekEvent();
+
+    /**
+     * Returns the signifier of the agent that recorded the trace, or
+     * {@link TraceFormat#UNKNOWN_AGENT} for traces written before it was recorded.
+     */
+    public abstract int getAgent();
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    public static TraceReader open(String file) throws IOException {
+        if (isBinaryTrace(file)) {
+            return new BinaryTraceReader(FileChannel.open(Paths.get(file), StandardOpenOption.READ));
+        } else {
+            return new TextTraceReader(new FileInputStream(file));
+        }
+    }
+
+    private static boolean isBinaryTrace(String file) throws IOException {
+        byte[] signature = new byte[Integer.BYTES];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < signature.length) {
+                int n = in.read(signature, read, signature.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+        }
+        return ByteBuffer.wrap(signature).order(ByteOrder.LITTLE_ENDIAN).getInt() == TraceFormat.MAGIC;
+    }
+}
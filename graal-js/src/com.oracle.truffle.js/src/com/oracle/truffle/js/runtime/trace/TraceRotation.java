@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Decides when a recorder starts a new {@link TraceFormat#getSegmentFile(String, int) segment} of
+ * its trace, and deletes old segments to stay within the configured retention limits.
+ *
+ * A segment is rotated once it reaches a given size or age. Closed segments are deleted, oldest
+ * first, once more than a given number of them exist or once they, together with a full current
+ * segment, exceed the disk budget. The newest closed segment is always kept.
+ */
+public final class TraceRotation {
+
+    private final long segmentSize;
+    private final long segmentNanos;
+    private final long maxSize;
+    private final int retainedSegments;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long retainedSize;
+    private long segmentStart;
+
+    /**
+     * @param segmentSize size in bytes after which a segment is rotated, 0 for no limit. Defaults
+     *            to a quarter of the disk budget if only the latter is given.
+     * @param segmentMillis age in milliseconds after which a segment is rotated, 0 for no limit
+     * @param maxSize disk budget in bytes for all segments, 0 for no limit
+     * @param retainedSegments number of closed segments to keep, 0 for no limit
+     */
+    public TraceRotation(long segmentSize, long segmentMillis, long maxSize, int retainedSegments) {
+        this.segmentSize = segmentSize == 0 && maxSize > 0 ? maxSize / 4 : segmentSize;
+        this.segmentNanos = segmentMillis * 1_000_000L;
+        this.maxSize = maxSize;
+        this.retainedSegments = retainedSegments;
+    }
+
+    /**
+     * Returns whether the trace is split into segments at all.
+     */
+    public boolean isEnabled() {
+        return segmentSize > 0 || segmentNanos > 0;
+    }
+
+    public void segmentOpened(long nanoTime) {
+        segmentStart = nanoTime;
+    }
+
+    /**
+     * Returns whether the current segment, which has the given size, should be closed.
+     */
+    public boolean isDue(long size, long nanoTime) {
+        return (segmentSize > 0 && size >= segmentSize) || (segmentNanos > 0 && nanoTime - segmentStart >= segmentNanos);
+    }
+
+    /**
+     * Accounts for a closed segment and deletes the segments that exceed the retention limits.
+     */
+    public void segmentClosed(String file) {
+        Segment closed = new Segment(new File(file));
+        segments.addLast(closed);
+        retainedSize += closed.size;
+        while (segments.size() > 1 && exceedsLimits()) {
+            Segment oldest = segments.removeFirst();
+            retainedSize -= oldest.size;
+            if (!oldest.file.delete() && oldest.file.exists()) {
+                System.err.println("Could not delete trace segment " + oldest.file);
+            }
+        }
+    }
+
+    private boolean exceedsLimits() {
+        return (retainedSegments > 0 && segments.size() > retainedSegments) || (maxSize > 0 && retainedSize + segmentSize > maxSize);
+    }
+
+    /**
+     * Returns the number of bytes used by the closed segments that are still retained.
+     */
+    public long getRetainedSize() {
+        return retainedSize;
+    }
+
+    public int getRetainedSegments() {
+        return segments.size();
+    }
+
+    private static final class Segment {
+        final File file;
+        final long size;
+
+        Segment(File file) {
+            this.file = file;
+            this.size = file.length();
+        }
+    }
+}
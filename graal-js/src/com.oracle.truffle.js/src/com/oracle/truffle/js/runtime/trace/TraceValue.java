@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+/**
+ * A recorded value, such as the result of a call to the host. The {@link #getType() type} is one of
+ * the {@code VALUE_} constants of {@link TraceFormat}; primitive values are stored in their
+ * {@link #getBits() bits}, strings, big integers and error messages as a {@link #getString()
+ * string}.
+ */
+public final class TraceValue {
+
+    private final int type;
+    private final long bits;
+    private final String string;
+
+    public TraceValue(int type, long bits, String string) {
+        assert TraceFormat.hasValueString(type) == (string != null);
+        this.type = type;
+        this.bits = bits;
+        this.string = string;
+    }
+
+    public static TraceValue of(int type) {
+        return new TraceValue(type, 0, null);
+    }
+
+    public static TraceValue of(int type, long bits) {
+        return new TraceValue(type, bits, null);
+    }
+
+    public static TraceValue of(int type, String string) {
+        return new TraceValue(type, 0, string);
+    }
+
+    public static TraceValue ofDouble(double value) {
+        return new TraceValue(TraceFormat.VALUE_DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    public double getDouble() {
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String getString() {
+        return string;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TraceValue)) {
+            return false;
+        }
+        TraceValue other = (TraceValue) obj;
+        return type == other.type && bits == other.bits && (string == null ? other.string == null : string.equals(other.string));
+    }
+
+    @Override
+    public int hashCode() {
+        return (type * 31 + Long.hashCode(bits)) * 31 + (string == null ? 0 : string.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        String name = TraceFormat.getValueTypeName(type);
+        switch (type) {
+            case TraceFormat.VALUE_BOOLEAN:
+                return name + " " + (bits != 0);
+            case TraceFormat.VALUE_INT:
+            case TraceFormat.VALUE_LONG:
+                return name + " " + bits;
+            case TraceFormat.VALUE_DOUBLE:
+                return name + " " + getDouble();
+            default:
+                return string == null ? name : name + " " + string;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.js.runtime.trace;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.oracle.truffle.js.runtime.trace.TraceFormat.Encoding;
+
+/**
+ * Sink for recorded events. Implementations buffer events and must be {@link #flush() flushed}
+ * or {@link #close() closed} for the events to reach the file.
+ */
+public abstract class TraceWriter implements Closeable {
+
+    protected TraceMetrics.Histogram flushLatency;
+
+    public abstract void writeJob(int id) throws IOException;
+
+    /**
+     * Writes a nondeterministic input, tagged with one of {@link TraceFormat#EVENT_SEED},
+     * {@link TraceFormat#EVENT_NANO_TIME} or {@link TraceFormat#EVENT_WALL_CLOCK}.
+     */
+    public abstract void writeInput(int tag, long value) throws IOException;
+
+    /**
+     * Writes a {@link TraceFormat#checkpoint(int, int) checkpoint} of the job queue.
+     */
+    public abstract void writeCheckpoint(long checkpoint) throws IOException;
+
+    /**
+     * Starts a trace that covers only a part of the run, see {@link TraceFormat#EVENT_SEGMENT}.
+     */
+    public abstract void writeSegment(long firstJob) throws IOException;
+
+    /**
+     * Writes the acquisition of a lock shared between agents, see {@link SyncOrder}.
+     */
+    public abstract void writeSync(long lock, long acquisition, long clock) throws IOException;
+
+    /**
+     * Writes a recorded value, see {@link TraceValue}.
+     */
+    public abstract void writeValue(TraceValue value) throws IOException;
+
+    public abstract void flush() throws IOException;
+
+    /**
+     * Records the time it takes to pass buffered events to the file, in nanoseconds: every chunk
+     * written by a binary writer, and every flush and close of a text writer.
+     */
+    public void setFlushLatency(TraceMetrics.Histogram flushLatency) {
+        this.flushLatency = flushLatency;
+    }
+
+    /**
+     * Returns the number of bytes passed to the file so far. Events that are still buffered are not
+     * included. May be called from any thread.
+     */
+    public abstract long getSize();
+
+    /**
+     * Returns an upper bound of the number of bytes the buffered events will add to the file. Only
+     * called by the thread that writes the events.
+     */
+    public long getBufferedSize() {
+        return 0;
+    }
+
+    /**
+     * Creates a writer for the trace of the agent with the given signifier.
+     */
+    public static TraceWriter create(String file, Encoding encoding, int agent) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        switch (encoding) {
+            case BINARY:
+                return new BinaryTraceWriter(out.getChannel(), agent);
+            case TEXT:
+                return new TextTraceWriter(out, agent);
+            default:
+                out.close();
+                throw new IllegalArgumentException(encoding.name());
+        }
+    }
+}
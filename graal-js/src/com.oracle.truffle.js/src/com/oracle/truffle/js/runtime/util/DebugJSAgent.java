@@ -186,7 +186,7 @@ public class DebugJSAgent extends JSAgent {
     public void wakeAgent(int w) {
         for (AgentExecutor e : spawnedAgent) {
             if (e.jsAgent.getSignifier() == w) {
-                e.thread.interrupt();
+                e.jsAgent.wake();
             }
         }
     }
@@ -48,10 +48,20 @@ import java.io.Writer;
 /**
  * Creation of PrintWriter is expensive, this is why we change just the delegate writer in this
  * wrapper class.
+ *
+ * Output can be {@link #suppress() suppressed}, for example while a replay fast-forwards to the
+ * interesting part of a trace. Suppressed output is not written, only hashed, so it can still be
+ * compared between runs.
  */
 public final class PrintWriterWrapper extends PrintWriter {
 
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
     private OutputStreamWrapper outWrapper;
+    private boolean suppressed;
+    private long suppressedHash = FNV_OFFSET_BASIS;
+    private long suppressedChars;
 
     public PrintWriterWrapper(OutputStream out, boolean autoFlush) {
         this(new OutputStreamWrapper(out), autoFlush);
@@ -84,6 +94,98 @@ public final class PrintWriterWrapper extends PrintWriter {
         }
     }
 
+    /**
+     * Discards all output written from now on until {@link #resume()} is called.
+     */
+    public void suppress() {
+        synchronized (this.lock) {
+            suppressed = true;
+        }
+    }
+
+    public void resume() {
+        synchronized (this.lock) {
+            suppressed = false;
+        }
+    }
+
+    public boolean isSuppressed() {
+        synchronized (this.lock) {
+            return suppressed;
+        }
+    }
+
+    /**
+     * Returns the FNV-1a hash of the characters discarded so far.
+     */
+    public long getSuppressedHash() {
+        synchronized (this.lock) {
+            return suppressedHash;
+        }
+    }
+
+    /**
+     * Returns the number of characters discarded so far.
+     */
+    public long getSuppressedChars() {
+        synchronized (this.lock) {
+            return suppressedChars;
+        }
+    }
+
+    private void hash(char c) {
+        suppressedHash = (suppressedHash ^ c) * FNV_PRIME;
+        suppressedChars++;
+    }
+
+    @Override
+    public void write(int c) {
+        synchronized (this.lock) {
+            if (suppressed) {
+                hash((char) c);
+            } else {
+                super.write(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+        synchronized (this.lock) {
+            if (suppressed) {
+                for (int i = off; i < off + len; i++) {
+                    hash(buf[i]);
+                }
+            } else {
+                super.write(buf, off, len);
+            }
+        }
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+        synchronized (this.lock) {
+            if (suppressed) {
+                for (int i = off; i < off + len; i++) {
+                    hash(s.charAt(i));
+                }
+            } else {
+                super.write(s, off, len);
+            }
+        }
+    }
+
+    @Override
+    public void println() {
+        synchronized (this.lock) {
+            if (suppressed) {
+                write(System.lineSeparator());
+            } else {
+                super.println();
+            }
+        }
+    }
+
     public void setFrom(PrintWriterWrapper otherWrapper) {
         synchronized (this.lock) {
             boolean newWrapper = false;
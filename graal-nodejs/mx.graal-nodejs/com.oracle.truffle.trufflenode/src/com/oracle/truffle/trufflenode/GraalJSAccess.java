@@ -204,6 +204,7 @@ import com.oracle.truffle.js.runtime.objects.PropertyDescriptor;
 import com.oracle.truffle.js.runtime.objects.PropertyReference;
 import com.oracle.truffle.js.runtime.objects.ScriptOrModule;
 import com.oracle.truffle.js.runtime.objects.Undefined;
+import com.oracle.truffle.js.runtime.trace.TraceFormat;
 import com.oracle.truffle.js.runtime.util.JSHashMap;
 import com.oracle.truffle.js.runtime.util.Pair;
 import com.oracle.truffle.js.runtime.util.TRegexUtil;
@@ -2848,13 +2849,7 @@ public final class GraalJSAccess {
 
     ///////////////////////////////////////
     public void isolateEnqueueMicrotask(Object microtask) {
-
-      SourceSection ss = functionGetSourceSection(microtask);
-      System.out.println("enquee");
-      if(ss != null){
-        System.out.println("hash:" + ss.hashCode());
-      }
-      agent.enqueuePromiseJob((DynamicObject) microtask);
+        mainJSContext.promiseEnqueueJob(mainJSRealm, (DynamicObject) microtask, TraceFormat.JOB_MICROTASK);
     }
 
     public void isolateSchedulePauseOnNextStatement() {
@@ -40,15 +40,14 @@
  */
 package com.oracle.truffle.trufflenode;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.oracle.truffle.js.runtime.JSAgent;
 
 public class NodeJSAgent extends JSAgent {
-    // The set of active agents, i.e., agents that entered an isolate
-    private static final Set<NodeJSAgent> agents = Collections.synchronizedSet(new HashSet<>());
+    // The active agents, i.e., agents that entered an isolate, by signifier
+    private static final Map<Integer, NodeJSAgent> agents = new ConcurrentHashMap<>();
     private Thread thread;
 
     NodeJSAgent() {
@@ -58,9 +57,9 @@ public class NodeJSAgent extends JSAgent {
     void setThread(Thread thread) {
         this.thread = thread;
         if (thread == null) {
-            agents.remove(this);
+            agents.remove(getSignifier());
         } else {
-            agents.add(this);
+            agents.put(getSignifier(), this);
         }
     }
 
@@ -70,13 +69,9 @@ public class NodeJSAgent extends JSAgent {
 
     @Override
     public void wakeAgent(int w) {
-        synchronized (agents) {
-            for (NodeJSAgent agent : agents) {
-                if (agent.getSignifier() == w) {
-                    agent.thread.interrupt();
-                    break;
-                }
-            }
+        NodeJSAgent agent = agents.get(w);
+        if (agent != null) {
+            agent.wake();
         }
     }
 